@@ -34,7 +34,7 @@ private constructor(internal val graph: GraphImpl, internal val itemManager: Ite
     }
 
     final override fun getItemCount() = itemManager.itemCount
-    final override fun getItemViewType(position: Int) = itemManager[position].type
+    final override fun getItemViewType(position: Int) = itemManager.typeAt(position)
 
     /****************************************************
      * Section registry
@@ -121,12 +121,16 @@ private class AdapterContractImpl<ID : Comparable<ID>> : AdapterContract<ID> {
         out.adapterPosition = 0
         out.hasHeader = false
         out.itemCount = adapter.graph.root.itemCount
-        out.childCount = adapter.graph.root.childCount
+        out.childCount = adapter.graph.root.numChildPositions
         out.subsectionsById = adapter.graph.root.subsections.map { it.id }
+        out.subsectionPositions = adapter.graph.root.subsections.map { it.positionInParent }
+        out.subsectionItemCounts = adapter.graph.root.subsections.map { it.itemCount }
     }
 
     override fun getSections() = adapter.sectionLookup.mapValues { it.value.configuration }
 
+    override fun getSectionIds() = adapter.sectionLookup.mapValues { it.value.id }
+
     override fun setSectionIds(idMap: Map<*, Int>) {
         idMap.forEach {
             val section = adapter.sectionLookup[it.key] ?: throw IllegalArgumentException(
@@ -141,25 +145,71 @@ private class AdapterContractImpl<ID : Comparable<ID>> : AdapterContract<ID> {
         data.second.adapterPosition = section.positionInAdapter
         data.second.hasHeader = section.header != null
         data.second.itemCount = section.itemCount
-        data.second.childCount = section.childCount
+        data.second.childCount = section.numChildPositions
         data.second.subsectionsById = section.subsections.map { it.id }
+        data.second.subsectionPositions = section.subsections.map { it.positionInParent }
+        data.second.subsectionItemCounts = section.subsections.map { it.itemCount }
+    }
+
+    override fun getDataRuns(start: Int, count: Int, out: AdapterContract.DataRuns) {
+        out.clear()
+        val end = start + count
+        var position = start
+        while (position < end) {
+            val section = adapter.graph.root.sectionHolding(position)
+            val positionInSection = position - section.positionInAdapter
+            var runLength = 1
+            val type = typeOf(section, positionInSection)
+            val childPosition = if (type == AdapterContract.Data.OTHER) {
+                val children = section.children
+                var next = section.indexOfChildAt(positionInSection)
+                val child = children[next]
+                val offset = positionInSection - child.peersItemsBeforeThis
+                // Plain items run on for as long as the following children are items too.
+                runLength = Math.min(end - position, child.itemCount - offset)
+                next += 1
+                while (position + runLength < end && next < children.size && children[next] !is Section) {
+                    runLength += Math.min(end - position - runLength, children[next].itemCount)
+                    next += 1
+                }
+                child.positionInParent + offset
+            } else {
+                childPositionOf(section, type)
+            }
+            out.add(section.id, childPosition, runLength, type)
+            position += runLength
+        }
     }
 
     override fun getData(position: Int): AdapterContract.Data {
-        val item = adapter.itemManager[position]
-        val parent = item.parent!!
-        return AdapterContract.data.pack(parent.id, item.positionInParent, when (item) {
-            parent.header -> AdapterContract.Data.HEADER
-            parent.footer -> AdapterContract.Data.FOOTER
-            else          -> AdapterContract.Data.OTHER
-        })
+        val section = adapter.graph.root.sectionHolding(position)
+        val positionInSection = position - section.positionInAdapter
+        val type = typeOf(section, positionInSection)
+        val childPosition = if (type == AdapterContract.Data.OTHER) {
+            val child = section.children[section.indexOfChildAt(positionInSection)]
+            child.positionInParent + positionInSection - child.peersItemsBeforeThis
+        } else {
+            childPositionOf(section, type)
+        }
+        return AdapterContract.data.pack(section.id, childPosition, type)
+    }
+
+    private fun typeOf(section: Section, positionInSection: Int) = when {
+        section.isHeaderAt(positionInSection) -> AdapterContract.Data.HEADER
+        section.isFooterAt(positionInSection) -> AdapterContract.Data.FOOTER
+        else                                  -> AdapterContract.Data.OTHER
     }
+
+    private fun childPositionOf(section: Section, type: Int) =
+            if (type == AdapterContract.Data.HEADER) section.header!!.positionInParent
+            else section.footer!!.positionInParent
 }
 
 
 internal interface SectionContract {
     fun notifySectionInserted(section: Section): Int
     fun notifySectionRemoved(section: Section)
+    fun notifySectionMoved(section: Section, toParent: Section, toPosition: Int)
     fun notifySectionUpdated(section: Section)
 }
 
@@ -173,9 +223,11 @@ private class DataChangeContract(val adapter: SuperSlimAdapter<*, *>,
         layoutManager.notifySectionRemoved(section.id, section.parent!!.id)
     }
 
-    //final override fun notifySectionMoved(section: Section, toParent: Section, toPosition: Int) {
-    //    layoutManager.notifySectionMoved(section.id, section.parent!!.id, section.positionInParent, toParent.id, toPosition)
-    //}
+    override fun notifySectionMoved(section: Section, toParent: Section, toPosition: Int) {
+        // Called before the section is placed again, so its position is still the old one.
+        layoutManager.notifySectionMoved(section.id, section.parent!!.id, toParent.id, toPosition,
+                                         section.positionInAdapter, section.itemCount)
+    }
 
     override fun notifySectionUpdated(section: Section) {
         layoutManager.notifySectionUpdated(section.id, section.configuration)
@@ -185,6 +237,10 @@ private class DataChangeContract(val adapter: SuperSlimAdapter<*, *>,
     }
 }
 
+/**
+ * Items by adapter position. Items are found by walking down the graph, so runs of items never need an [Item] for each
+ * row, and changes are passed on to the adapter as notifications.
+ */
 internal class ItemManager {
     fun init(adapter: SuperSlimAdapter<*, *>) {
         this.adapter = adapter
@@ -192,47 +248,47 @@ internal class ItemManager {
 
     private var adapter: SuperSlimAdapter<*, *>? = null
 
-    private val items = ArrayList<Item>()
-
     val itemCount: Int
-        get() = items.size
+        get() = adapter?.let { it.graph.root.itemCount } ?: 0
 
-    operator fun get(position: Int) = items[position]
+    operator fun get(position: Int): Item {
+        val root = adapter?.let { it.graph.root } ?: throw IndexOutOfBoundsException("No items.")
+        val section = root.sectionHolding(position)
+        return section.itemAt(position - section.positionInAdapter)
+    }
+
+    fun typeAt(position: Int): Int {
+        val root = adapter?.let { it.graph.root } ?: throw IndexOutOfBoundsException("No items.")
+        val section = root.sectionHolding(position)
+        return section.typeAt(position - section.positionInAdapter)
+    }
 
-    fun insert(position: Int, item: Item) {
-        items.add(position, item)
+    fun insert(position: Int, @Suppress("UNUSED_PARAMETER") item: Item) {
         if (BuildConfig.UNIT_TEST) return
         adapter?.notifyItemInserted(position)
     }
 
-    fun insert(start: Int, items: List<Item>) {
-        this.items.addAll(start, items)
+    fun insertRange(start: Int, count: Int) {
         if (BuildConfig.UNIT_TEST) return
-        adapter?.notifyItemRangeInserted(start, items.size)
+        adapter?.notifyItemRangeInserted(start, count)
     }
 
     fun move(from: Int, to: Int) {
-        items.add(to, items.removeAt(from))
         if (BuildConfig.UNIT_TEST) return
         adapter?.notifyItemMoved(from, to)
     }
 
     fun remove(position: Int) {
-        items.removeAt(position)
         if (BuildConfig.UNIT_TEST) return
         adapter?.notifyItemRemoved(position)
     }
 
     fun removeRange(start: Int, range: Int) {
-        for (i in start until start + range) {
-            items.removeAt(start)
-        }
         if (BuildConfig.UNIT_TEST) return
         adapter?.notifyItemRangeRemoved(start, range)
     }
 
-    operator fun set(position: Int, value: Item) {
-        items[position] = value
+    operator fun set(position: Int, @Suppress("UNUSED_PARAMETER") value: Item) {
         if (BuildConfig.UNIT_TEST) return
         adapter?.notifyItemChanged(position)
     }
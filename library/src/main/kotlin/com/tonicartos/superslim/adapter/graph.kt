@@ -7,6 +7,9 @@ import com.tonicartos.superslim.layout.LinearSectionConfig
 import java.util.*
 
 sealed class Node {
+    /**
+     * Child position in the parent. An [ItemRun] takes a child position for each of its items.
+     */
     var positionInParent: Int = 0
     val positionInAdapter: Int
         get() = (parent?.positionInAdapter ?: 0) + peersItemsBeforeThis
@@ -18,7 +21,17 @@ sealed class Node {
         protected set
     open val childCount: Int get() = 0
 
-    fun removeFromParent() = parent?.remove(positionInParent)
+    /**
+     * Index of this node in the parent's children.
+     */
+    internal var indexInParent: Int = 0
+
+    /**
+     * Number of child positions taken by this node.
+     */
+    internal open val span: Int get() = 1
+
+    fun removeFromParent() = parent?.remove(indexInParent)
 
     /**
      * Number of items held by other nodes before this one in the same section.
@@ -28,10 +41,12 @@ sealed class Node {
     internal abstract fun insertItemsToAdapter()
     internal abstract fun removeItemsFromAdapter()
 
-    open internal fun init(positionInParent: Int, itemsBeforeThis: Int, parent: Section, itemManager: ItemManager?) {
+    open internal fun init(indexInParent: Int, positionInParent: Int, itemsBeforeThis: Int, parent: Section,
+                           itemManager: ItemManager?) {
         this.itemManager = itemManager
         this.parent = parent
         this.peersItemsBeforeThis = itemsBeforeThis
+        this.indexInParent = indexInParent
         this.positionInParent = positionInParent
     }
 
@@ -54,7 +69,7 @@ sealed class Node {
  * An item in the graph. Used in [SuperSlimAdapter.onBindViewHolder] so any packaged data can be used for the
  * binding or to lookup data elsewhere.
  */
-open class Item(val type: Int = 0, val data: Any? = null) : Node.ItemNode() {
+open class Item(val type: Int = 0, open val data: Any? = null) : Node.ItemNode() {
     override fun insertItemsToAdapter() {
         itemManager?.insert(positionInAdapter, this)
     }
@@ -64,6 +79,57 @@ open class Item(val type: Int = 0, val data: Any? = null) : Node.ItemNode() {
     }
 }
 
+/**
+ * A run of plain items, held as a count and a function giving the data for each item, rather than an [Item] for each
+ * one. Positions in the run are worked out from the start of the run, and the items share one [Item] for binding.
+ *
+ * The item count of a run is fixed; replace the run to change it.
+ */
+class ItemRun @JvmOverloads constructor(count: Int, val type: Int = 0,
+                                        private val data: (index: Int) -> Any? = { null }) : Node() {
+    init {
+        itemCount = count
+    }
+
+    override val span get() = itemCount
+
+    /**
+     * The item at [index] in the run. Items in the run share one [Item], which each lookup points at [index], so it is
+     * only good until the next lookup in the run. It has the parent and positions of the item, but it is not one of
+     * the children of the parent.
+     */
+    fun itemAt(index: Int): Item {
+        if (index !in 0..itemCount - 1) throw IndexOutOfBoundsException("Index $index not in run of $itemCount items.")
+        val item = sharedItem ?: RunItem(this).also { sharedItem = it }
+        item.index = index
+        item.parent = parent
+        item.positionInParent = positionInParent + index
+        item.peersItemsBeforeThis = peersItemsBeforeThis + index
+        return item
+    }
+
+    /**
+     * Data for the item at [index] in the run.
+     */
+    fun dataAt(index: Int) = data(index)
+
+    private var sharedItem: RunItem? = null
+
+    private class RunItem(private val run: ItemRun) : Item(run.type) {
+        var index = 0
+
+        override val data: Any? get() = run.dataAt(index)
+    }
+
+    override fun insertItemsToAdapter() {
+        itemManager?.insertRange(positionInAdapter, itemCount)
+    }
+
+    override fun removeItemsFromAdapter() {
+        itemManager?.removeRange(positionInAdapter, itemCount)
+    }
+}
+
 /**
  * A section in the graph.
  */
@@ -241,13 +307,78 @@ class Section internal constructor(contract: SectionContract? = null) : Node.Sec
 
     override val childCount: Int get() = children.size
 
-    private fun initChild(position: Int, child: Node) {
+    private fun initChild(index: Int, child: Node) {
         val numItemsBeforeChild = when {
-            position > 0   -> children[position - 1].let { it.peersItemsBeforeThis + it.itemCount }
+            index > 0      -> children[index - 1].let { it.peersItemsBeforeThis + it.itemCount }
             header == null -> 0
             else           -> 1
         }
-        child.init(position, numItemsBeforeChild, this, itemManager)
+        val childPosition = if (index > 0) children[index - 1].let { it.positionInParent + it.span } else 0
+        child.init(index, childPosition, numItemsBeforeChild, this, itemManager)
+    }
+
+    /**
+     * Number of child positions taken by the children, counting each item in a run.
+     */
+    internal val numChildPositions: Int
+        get() = children.lastOrNull()?.let { it.positionInParent + it.span } ?: 0
+
+    /**
+     * Index of the child holding the item at [position], relative to the start of this section. Children are in item
+     * order, so this is a binary search.
+     */
+    internal fun indexOfChildAt(position: Int): Int {
+        var lo = 0
+        var hi = children.size - 1
+        while (lo < hi) {
+            val mid = (lo + hi + 1) ushr 1
+            if (children[mid].peersItemsBeforeThis <= position) lo = mid else hi = mid - 1
+        }
+        // Empty subsections share the item position of the child that holds it.
+        while (lo > 0 && children[lo].itemCount == 0) lo -= 1
+        return lo
+    }
+
+    internal fun isHeaderAt(position: Int) = header != null && position == 0
+    internal fun isFooterAt(position: Int) = footer != null && !collapsed && position == itemCount - 1
+
+    /**
+     * The section directly holding the item at [position], relative to the start of this section. That is this
+     * section, unless the item is in a subsection.
+     */
+    internal fun sectionHolding(position: Int): Section {
+        if (isHeaderAt(position) || isFooterAt(position)) return this
+        val child = children[indexOfChildAt(position)]
+        return if (child is Section) child.sectionHolding(position - child.peersItemsBeforeThis) else this
+    }
+
+    /**
+     * The item at [position], relative to the start of this section, which must not be in a subsection. Items in a
+     * run share one item, see [ItemRun.itemAt].
+     */
+    internal fun itemAt(position: Int): Item {
+        if (isHeaderAt(position)) return header!!
+        if (isFooterAt(position)) return footer!!
+        val child = children[indexOfChildAt(position)]
+        return when (child) {
+            is ItemRun -> child.itemAt(position - child.peersItemsBeforeThis)
+            is Item    -> child
+            else       -> throw IllegalArgumentException("Position $position is in a subsection.")
+        }
+    }
+
+    /**
+     * The view type of the item at [position], as for [itemAt], without looking up the item.
+     */
+    internal fun typeAt(position: Int): Int {
+        if (isHeaderAt(position)) return header!!.type
+        if (isFooterAt(position)) return footer!!.type
+        val child = children[indexOfChildAt(position)]
+        return when (child) {
+            is ItemRun -> child.type
+            is Item    -> child.type
+            else       -> throw IllegalArgumentException("Position $position is in a subsection.")
+        }
     }
 
     /*************************
@@ -290,7 +421,8 @@ class Section internal constructor(contract: SectionContract? = null) : Node.Sec
             val numItemsAdded = child.itemCount
             children.subList(dest, children.size).forEach {
                 it.peersItemsBeforeThis += numItemsAdded
-                it.positionInParent += 1
+                it.positionInParent += child.span
+                it.indexInParent += 1
             }
             totalItemsChanged(numItemsAdded)
         }
@@ -305,22 +437,32 @@ class Section internal constructor(contract: SectionContract? = null) : Node.Sec
 
         val moving = mutableChildren.removeAt(from)
         if (!collapsed) {
-            moving.removeItemsFromAdapter()
-
             // Update children between from and to.
             val numItemsRemoved = moving.itemCount
             if (from < to) {
                 children.subList(from, to).forEach {
                     it.peersItemsBeforeThis -= numItemsRemoved
-                    it.positionInParent -= 1
+                    it.positionInParent -= moving.span
+                    it.indexInParent -= 1
                 }
             } else {
                 children.subList(to, from).forEach {
                     it.peersItemsBeforeThis += numItemsRemoved
-                    it.positionInParent += 1
+                    it.positionInParent += moving.span
+                    it.indexInParent += 1
                 }
             }
 
+            if (moving is Section && moving.id != -1 && contract != null) {
+                // Move the section in the layout manager so it keeps its state. Only its items go out and back in. The
+                // layout manager takes a child position, which differs from the index once runs are in front of it.
+                val toPosition = if (to > 0) children[to - 1].let { it.positionInParent + it.span } else 0
+                contract?.notifySectionMoved(moving, this, toPosition)
+                itemManager?.removeRange(moving.positionInAdapter, moving.itemCount)
+            } else {
+                moving.removeItemsFromAdapter()
+            }
+
             // Re-init child in new place.
             initChild(to, moving)
             moving.insertItemsToAdapter()
@@ -341,7 +483,8 @@ class Section internal constructor(contract: SectionContract? = null) : Node.Sec
             val numItemsRemoved = removed.itemCount
             children.subList(position, children.size).forEach {
                 it.peersItemsBeforeThis -= numItemsRemoved
-                it.positionInParent -= 1
+                it.positionInParent -= removed.span
+                it.indexInParent -= 1
             }
             totalItemsChanged(-numItemsRemoved)
         }
@@ -359,11 +502,13 @@ class Section internal constructor(contract: SectionContract? = null) : Node.Sec
             initChild(position, replacement)
             replacement.insertItemsToAdapter()
 
-            // Update children after the target position if there is a change in total items.
+            // Update children after the target position if there is a change in total items or child positions.
             val numItemsAdded = replacement.itemCount - toRemove.itemCount
-            if (numItemsAdded != 0) {
+            val numPositionsAdded = replacement.span - toRemove.span
+            if (numItemsAdded != 0 || numPositionsAdded != 0) {
                 children.subList(position + 1, children.size).forEach {
                     it.peersItemsBeforeThis += numItemsAdded
+                    it.positionInParent += numPositionsAdded
                 }
                 totalItemsChanged(numItemsAdded)
             }
@@ -387,7 +532,7 @@ class Section internal constructor(contract: SectionContract? = null) : Node.Sec
     }
 
     /**
-     * A list containing all items in the section.
+     * A list containing all items in the section. Runs of items are not included.
      */
     @Suppress("WARNINGS")
     val items: List<Item>
@@ -422,7 +567,7 @@ class Section internal constructor(contract: SectionContract? = null) : Node.Sec
 
         itemCount += change
         footer?.let { it.peersItemsBeforeThis += change }
-        parent?.totalItemsChangedInChild(positionInParent, change)
+        parent?.totalItemsChangedInChild(indexInParent, change)
     }
 
     private fun totalItemsChangedInChild(position: Int, change: Int) {
@@ -488,7 +633,7 @@ internal class GraphImpl() : Graph, SectionContract {
         contract?.notifySectionUpdated(section)
     }
 
-    //    override fun notifySectionMoved(section: Section, toParent: Section, toPosition: Int) {
-    //        scw?.notifySectionMoved(section, toParent, toPosition)
-    //    }
+    override fun notifySectionMoved(section: Section, toParent: Section, toPosition: Int) {
+        contract?.notifySectionMoved(section, toParent, toPosition)
+    }
 }
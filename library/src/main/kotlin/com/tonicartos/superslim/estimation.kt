@@ -0,0 +1,45 @@
+package com.tonicartos.superslim
+
+/**
+ * Estimates the extent of items which have not been laid out, so scroll bars can be shown without measuring every
+ * item. Extents are in the scroll direction.
+ *
+ * Each section keeps the average extent of its own measured items, and the section estimates are added up through the
+ * section graph. The estimator is told of every measured item, but is only asked for the extent of lines of items in
+ * sections where nothing has been measured yet.
+ */
+interface ExtentEstimator {
+    /**
+     * An item of [viewType] was measured at [extent], including decorations.
+     */
+    fun onItemMeasured(viewType: Int, extent: Int)
+
+    /**
+     * Estimated extent of [itemCount] items, one after the other.
+     */
+    fun estimateExtent(itemCount: Int): Int
+}
+
+/**
+ * Estimates from the average extent of measured items. Only recent measurements are kept in the average, so the
+ * estimate follows the content as it is scrolled through.
+ */
+class AverageExtentEstimator @JvmOverloads constructor(private val maxSamples: Int = 1000) : ExtentEstimator {
+    private var sum = 0L
+    private var samples = 0
+
+    override fun onItemMeasured(viewType: Int, extent: Int) {
+        if (samples == maxSamples) {
+            // Drop an average sample to make room.
+            sum -= sum / samples
+            samples -= 1
+        }
+        sum += extent
+        samples += 1
+    }
+
+    override fun estimateExtent(itemCount: Int): Int {
+        if (samples == 0) return 0
+        return Math.min(Int.MAX_VALUE.toLong(), sum * itemCount / samples).toInt()
+    }
+}
@@ -152,12 +152,34 @@ abstract class SectionConfig(gutterStart: Int = SectionConfig.DEFAULT_GUTTER,
     abstract protected fun onMakeSection(oldState: SectionState?): SectionState
 
     /**
-     * Copy the configuration. Section configs are always copied when they are passed to the layout manager.
+     * True if a section would be laid out the same with [other] as with this configuration. Section state is only
+     * kept across a data set change if its configuration is equivalent.
+     */
+    internal fun isEquivalentTo(other: SectionConfig) = this === other || javaClass == other.javaClass &&
+            gutterStart == other.gutterStart && gutterEnd == other.gutterEnd && headerStyle == other.headerStyle &&
+            footerStyle == other.footerStyle && paddingLeft == other.paddingLeft && paddingTop == other.paddingTop &&
+            paddingRight == other.paddingRight && paddingBottom == other.paddingBottom && onIsEquivalentTo(other)
+
+    /**
+     * Compare configuration specific to the subclass. [other] is always of the same class. Configurations are treated
+     * as different unless this is overridden.
+     */
+    protected open fun onIsEquivalentTo(other: SectionConfig) = false
+
+    /**
+     * Copy the configuration. Section configs are copied when they are passed to the layout manager, so later changes
+     * to a config only take effect when it is passed in again.
      */
     fun copy(): SectionConfig {
         return onCopy()
     }
 
+    /**
+     * A copy of this configuration the layout manager can hold on to. Copies are never changed, so [current] is
+     * shared instead of copying again if it is equivalent.
+     */
+    internal fun snapshot(current: SectionConfig?) = if (current != null && isEquivalentTo(current)) current else copy()
+
     abstract protected fun onCopy(): SectionConfig
 
     companion object {
@@ -2,14 +2,46 @@ package com.tonicartos.superslim.internal
 
 import android.support.v7.widget.RecyclerView
 import android.view.View
-import java.util.*
 
 internal val View.rvLayoutParams: RecyclerView.LayoutParams
     get() = layoutParams as RecyclerView.LayoutParams
 
-inline fun <T : Stack<I>, I, R> T.babushka(block: T.(I) -> R): R {
-    val item = pop()
+/**
+ * A fixed set of nested layers, outermost last. Only the layers below the cursor are visible from the top; walking
+ * down a layer moves the cursor rather than popping, so nothing is written but the cursor.
+ */
+internal class LayerStack<T>(private val layers: Array<T>) {
+    private var cursor = layers.size
+
+    val size get() = layers.size
+
+    operator fun get(index: Int) = layers[index]
+
+    /**
+     * The top visible layer.
+     */
+    fun peek() = layers[cursor - 1]
+
+    fun descend(): T {
+        cursor -= 1
+        return layers[cursor]
+    }
+
+    fun ascend() {
+        cursor += 1
+    }
+
+    inline fun forEach(block: (T) -> Unit) {
+        for (i in 0 until size) block(this[i])
+    }
+}
+
+/**
+ * Run [block] with the top layer, while the layers under it are the ones visible.
+ */
+internal inline fun <T, R> LayerStack<T>.babushka(block: LayerStack<T>.(T) -> R): R {
+    val item = descend()
     val r = block(item)
-    push(item)
+    ascend()
     return r
 }
@@ -0,0 +1,82 @@
+package com.tonicartos.superslim.internal
+
+/**
+ * Measured extents of items in the scroll direction, keyed by adapter position and view type. The cache is direct
+ * mapped over a fixed number of slots, so it never grows and lookups never allocate; an item only displaces an item
+ * whose position maps to the same slot.
+ *
+ * Positions are not shifted when items are added, removed, or moved. Instead everything from the first position
+ * affected is dropped, and is measured again as it is reached.
+ */
+internal class ExtentCache(capacity: Int = 512) {
+    companion object {
+        const val NO_EXTENT = -1
+        private const val EMPTY = -1
+    }
+
+    private val mask: Int
+    private val positions: IntArray
+    private val viewTypes: IntArray
+    private val extents: IntArray
+
+    init {
+        var size = 1
+        while (size < capacity) size = size shl 1
+        mask = size - 1
+        positions = IntArray(size) { EMPTY }
+        viewTypes = IntArray(size)
+        extents = IntArray(size)
+    }
+
+    /**
+     * @return The extent measured for the item, or [NO_EXTENT] if it is not cached.
+     */
+    operator fun get(position: Int, viewType: Int): Int {
+        val slot = position and mask
+        return if (positions[slot] == position && viewTypes[slot] == viewType) extents[slot] else NO_EXTENT
+    }
+
+    /**
+     * The extent measured for the item at [position], whatever its view type. Changes that could give the item a new
+     * view type also drop it from the cache.
+     *
+     * @return The extent, or [NO_EXTENT] if it is not cached.
+     */
+    operator fun get(position: Int): Int {
+        val slot = position and mask
+        return if (positions[slot] == position) extents[slot] else NO_EXTENT
+    }
+
+    /**
+     * Cache the [extent] measured for an item.
+     *
+     * @return False if the item was already cached with the same extent.
+     */
+    fun put(position: Int, viewType: Int, extent: Int): Boolean {
+        val slot = position and mask
+        if (positions[slot] == position && viewTypes[slot] == viewType && extents[slot] == extent) return false
+        positions[slot] = position
+        viewTypes[slot] = viewType
+        extents[slot] = extent
+        return true
+    }
+
+    /**
+     * Drop the items from [position] on.
+     */
+    fun invalidateFrom(position: Int) {
+        for (slot in 0 until positions.size) if (positions[slot] >= position) positions[slot] = EMPTY
+    }
+
+    /**
+     * Drop [count] items from [start].
+     */
+    fun invalidate(start: Int, count: Int) {
+        val end = start + count
+        for (slot in 0 until positions.size) {
+            if (start <= positions[slot] && positions[slot] < end) positions[slot] = EMPTY
+        }
+    }
+
+    fun clear() = invalidateFrom(0)
+}
@@ -0,0 +1,176 @@
+package com.tonicartos.superslim.internal
+
+/**
+ * A list of non-negative ints backed by a Fenwick (binary indexed) tree, so that prefix sums and searches over the
+ * prefix sums are O(log n). Point updates are O(log n). Structural changes (insert and remove) shift the raw values
+ * and mark the tree stale; the tree is rebuilt in O(n) on the next query, so a run of structural changes costs a
+ * single rebuild.
+ */
+internal class FenwickTree(initialCapacity: Int = 8) {
+    private var values = IntArray(initialCapacity)
+    private var tree = IntArray(initialCapacity + 1)
+    private var stale = false
+
+    var size = 0
+        private set
+
+    /**
+     * Sum of all the values. Kept as values change, so unlike [sum] it is O(1) and never rebuilds a stale tree.
+     */
+    var total = 0
+        private set
+
+    operator fun get(index: Int): Int {
+        checkIndex(index)
+        return values[index]
+    }
+
+    operator fun set(index: Int, value: Int) {
+        add(index, value - get(index))
+    }
+
+    /**
+     * Add [delta] to the value at [index].
+     */
+    fun add(index: Int, delta: Int) {
+        checkIndex(index)
+        if (delta == 0) return
+        values[index] += delta
+        total += delta
+        if (stale) return
+        var i = index + 1
+        while (i <= size) {
+            tree[i] += delta
+            i += i and -i
+        }
+    }
+
+    fun add(value: Int) = insert(size, value)
+
+    fun insert(index: Int, value: Int) {
+        if (index < 0 || index > size) throw IndexOutOfBoundsException("index: $index, size: $size")
+        ensureCapacity(size + 1)
+        System.arraycopy(values, index, values, index + 1, size - index)
+        values[index] = value
+        size += 1
+        total += value
+        stale = true
+    }
+
+    fun removeAt(index: Int): Int {
+        checkIndex(index)
+        val removed = values[index]
+        System.arraycopy(values, index + 1, values, index, size - index - 1)
+        size -= 1
+        total -= removed
+        stale = true
+        return removed
+    }
+
+    /**
+     * Move the value at [from] to [to], shifting the values in between along by one. Only the entries between [from]
+     * and [to] are updated.
+     */
+    fun move(from: Int, to: Int) {
+        checkIndex(from)
+        checkIndex(to)
+        val value = values[from]
+        if (from < to) {
+            for (i in from until to) set(i, values[i + 1])
+        } else {
+            for (i in from downTo to + 1) set(i, values[i - 1])
+        }
+        set(to, value)
+    }
+
+    fun clear() {
+        size = 0
+        total = 0
+        stale = true
+    }
+
+    /**
+     * Sum of the first [count] values.
+     */
+    fun sum(count: Int): Int {
+        if (count < 0 || count > size) throw IndexOutOfBoundsException("count: $count, size: $size")
+        ensureTree()
+        var result = 0
+        var i = count
+        while (i > 0) {
+            result += tree[i]
+            i -= i and -i
+        }
+        return result
+    }
+
+    /**
+     * The largest number of leading values whose sum does not exceed [target]. Returns 0 if the first value is already
+     * larger than [target].
+     */
+    fun countWithSumAtMost(target: Int): Int {
+        if (target < 0) return 0
+        ensureTree()
+        var count = 0
+        var remaining = target
+        var step = Integer.highestOneBit(size)
+        while (step > 0) {
+            val next = count + step
+            if (next <= size && tree[next] <= remaining) {
+                count = next
+                remaining -= tree[next]
+            }
+            step = step shr 1
+        }
+        return count
+    }
+
+    /**
+     * Like [countWithSumAtMost], but over the sums of each value, the value at the same index in [other], and [offset].
+     * Both lists must be the same size, and each of these per-index totals must be non-negative.
+     */
+    fun countWithSumAtMost(target: Int, other: FenwickTree, offset: Int): Int {
+        if (other.size != size) throw IllegalArgumentException("size: $size, other size: ${other.size}")
+        if (target < 0) return 0
+        ensureTree()
+        other.ensureTree()
+        var count = 0
+        var remaining = target
+        var step = Integer.highestOneBit(size)
+        while (step > 0) {
+            val next = count + step
+            // Tree node next covers exactly step values here, as count is always a multiple of twice the step.
+            if (next <= size) {
+                val nodeSum = tree[next] + other.tree[next] + offset * step
+                if (nodeSum <= remaining) {
+                    count = next
+                    remaining -= nodeSum
+                }
+            }
+            step = step shr 1
+        }
+        return count
+    }
+
+    private fun ensureTree() {
+        if (!stale) return
+        if (tree.size < size + 1) tree = IntArray(values.size + 1)
+        System.arraycopy(values, 0, tree, 1, size)
+        for (i in 1..size) {
+            val parent = i + (i and -i)
+            if (parent <= size) tree[parent] += tree[i]
+        }
+        stale = false
+    }
+
+    private fun ensureCapacity(capacity: Int) {
+        if (values.size >= capacity) return
+        values = values.copyOf(Math.max(capacity, values.size * 2))
+    }
+
+    private fun checkIndex(index: Int) {
+        if (index < 0 || index >= size) throw IndexOutOfBoundsException("index: $index, size: $size")
+    }
+
+    override fun toString() = (0 until size).joinToString(prefix = "[", postfix = "]") { "${values[it]}" }
+}
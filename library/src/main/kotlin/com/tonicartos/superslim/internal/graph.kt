@@ -5,13 +5,13 @@ import android.os.Parcelable
 import android.support.v7.widget.RecyclerView
 import android.support.v7.widget.RecyclerView.NO_POSITION
 import android.util.Log
-import android.util.SparseArray
 import android.view.View
 import com.tonicartos.superslim.*
 import com.tonicartos.superslim.SectionConfig.Companion.GUTTER_AUTO
 import com.tonicartos.superslim.internal.layout.FooterLayoutManager
 import com.tonicartos.superslim.internal.layout.HeaderLayoutManager
 import com.tonicartos.superslim.internal.layout.PaddingLayoutManager
+import com.tonicartos.superslim.layout.LinearSectionConfig
 import java.util.*
 
 private const val ENABLE_FOOTER = true
@@ -22,29 +22,236 @@ private val HEADER_LAYER = 1 + (if (ENABLE_FOOTER) 1 else 0)
 private val PADDING_LAYER = 1 + (if (ENABLE_FOOTER) 1 else 0) + (if (ENABLE_HEADER) 1 else 0)
 private const val ENABLE_ITEM_CHANGE_LOGGING = false
 
+/**
+ * Results of removing items from a section are packed into a long so the removal recursion does not allocate. The
+ * items removed before the section are in the high word and the items removed from the section in the low word.
+ */
+private fun packRemoval(itemsBefore: Int, itemsRemoved: Int) = (itemsBefore.toLong() shl 32) or itemsRemoved.toLong()
+
+private val Long.itemsBefore get() = (this ushr 32).toInt()
+private val Long.itemsRemoved get() = toInt()
+
+/**
+ * Populates a placeholder section from the adapter the first time it is reached.
+ */
+internal interface SectionLoader {
+    fun load(section: SectionState, key: Any?)
+}
+
 internal class GraphManager(adapter: AdapterContract<*>) {
-    val root: SectionState = adapter.getRoot().makeSection()
+    var root: SectionState = adapter.getRoot().snapshot(null).makeSection()
+        private set
     private val sectionIndex = SectionManager()
+    private val rootId = sectionIndex.add(root)
+
+    private var adapter: AdapterContract<*> = adapter
+    /**
+     * Adapter key of each section, by id.
+     */
+    private val sectionKeys = HashMap<Int, Any?>()
+    private val sectionData = SectionData()
+    private val loader = object : SectionLoader {
+        override fun load(section: SectionState, key: Any?) {
+            adapter.populateSection(key to sectionData)
+            loadSection(section, sectionData)
+        }
+    }
 
     init {
         // Init root
-        val rootId = sectionIndex.add(root)
         adapter.setRootId(rootId)
-        // Init rest
-        val adapterIds2SlmIds = adapter.getSections().mapValues { sectionIndex.add(it.value.makeSection()) }
+        // Init rest. Sections are only registered here; each is made when its parent is loaded.
+        var lastConfig: SectionConfig? = null
+        val adapterIds2SlmIds = adapter.getSections().mapValues {
+            // Configs are snapshot as they enter the graph, so later changes to them only count when notified.
+            lastConfig = it.value.snapshot(lastConfig)
+            sectionIndex.add(lastConfig!!)
+        }
         adapter.setSectionIds(adapterIds2SlmIds)
 
-        val sectionData = SectionData()
-        // Populate root
+        loadSections(adapterIds2SlmIds)
+    }
+
+    /**
+     * Bring the graph back in line with the adapter after a data set change. The state of a section is kept if the
+     * adapter section still has its id and an equivalent configuration; any other section gets a new state.
+     *
+     * The graph then reloads from the adapter. Only sections holding layout state are populated straight away, and
+     * only while their parents are unchanged; everything else becomes a placeholder, loaded as it is reached. If all
+     * the sections holding layout state are unchanged, the layout carries on from where it was. Otherwise the layout
+     * starts afresh from the old anchor.
+     *
+     * The adapter hands over its sections as one map, so each is still looked at once to match up ids.
+     */
+    fun reconcile(adapter: AdapterContract<*>) {
+        // The adapter is now the whole truth, so pending section changes no longer apply.
+        removals.clear()
+        clearSectionUpdates()
+        sectionBatch = null
+        reload(adapter)
+    }
+
+    /**
+     * Reload the graph from the adapter, as [reconcile] does, but keep queued section changes. They are still to be
+     * applied to the sections they were notified for.
+     */
+    private fun reload(adapter: AdapterContract<*>) {
+        this.adapter = adapter
+        needsReload = false
+        extentCache.clear()
+        val anchor = requestedAnchor ?: root.anchor
+
+        // States kept as they were, which may also keep their layout state.
+        val retained = HashSet<SectionState>()
+        val rootConfig = adapter.getRoot()
+        if (!root.baseConfig.isEquivalentTo(rootConfig)) {
+            root = rootConfig.snapshot(null).makeSection(root)
+            sectionIndex[rootId] = root
+        } else {
+            retained.add(root)
+        }
+        adapter.setRootId(rootId)
+
+        val currentIds = adapter.getSectionIds()
+        var lastConfig: SectionConfig? = null
+        // Configs entering the graph are snapshot, the same as when they are notified.
+        fun snapshotOf(config: SectionConfig) = config.snapshot(lastConfig).also { lastConfig = it }
+        val adapterIds2SlmIds = adapter.getSections().mapValues {
+            val id = currentIds[it.key] ?: -1
+            val live = id >= 0 && id != rootId && id in sectionIndex
+            val oldState = if (live) sectionIndex.peek(id) else null
+            when {
+                !live                                         -> sectionIndex.add(snapshotOf(it.value))
+                oldState == null                              -> {
+                    sectionIndex[id] = snapshotOf(it.value)
+                    id
+                }
+                oldState.baseConfig.isEquivalentTo(it.value) -> {
+                    retained.add(oldState)
+                    id
+                }
+                else                                          -> {
+                    sectionIndex[id] = snapshotOf(it.value).makeSection(oldState)
+                    id
+                }
+            }
+        }
+        val liveIds = HashSet(adapterIds2SlmIds.values)
+        liveIds.add(rootId)
+        sectionIndex.retainAll(liveIds)
+        adapter.setSectionIds(adapterIds2SlmIds)
+
+        if (!loadSections(adapterIds2SlmIds, retained)) {
+            // Changed sections had layout state that may point past the new items, so lay out afresh from the old
+            // anchor.
+            root.resetLayout()
+            requestedAnchor = anchor
+        }
+    }
+
+    /**
+     * Load the root from the adapter. Everything under it is loaded as it is reached, see [loadSection]. Sections not
+     * attached to the graph are never loaded.
+     *
+     * @return True if every section holding layout state kept it, see [loadSection].
+     */
+    private fun loadSections(adapterIds2SlmIds: Map<*, Int>, retained: Set<SectionState>? = null): Boolean {
+        sectionKeys.clear()
+        adapterIds2SlmIds.forEach { sectionKeys[it.value] = it.key }
+
         adapter.populateRoot(sectionData)
-        sectionData.subsections = sectionData.subsectionsById.map { sectionIndex[it] }
-        sectionIndex[rootId].load(sectionData)
-        // Populate rest
-        adapterIds2SlmIds.forEach {
-            adapter.populateSection(it.key to sectionData)
-            sectionData.subsections = sectionData.subsectionsById.map { sectionIndex[it] }
-            sectionIndex[it.value].load(sectionData)
+        return loadSection(root, sectionData, retained)
+    }
+
+    /**
+     * Load [section] from populated [data]. Its subsections are made as placeholders that only hold their item
+     * counts, and each is loaded in turn the first time layout, fill, or anchor resolution reaches it.
+     *
+     * A [retained] section with layout state keeps it if its children are the same as before. Then its subsections
+     * holding layout state are populated and checked in the same way, rather than being made placeholders.
+     *
+     * @return True if the section, and every subsection under it holding layout state, kept its layout state.
+     */
+    /**
+     * Adapter key of a section. Sections added since the last load are looked up from the adapter.
+     */
+    private fun keyOf(section: Int): Any? {
+        if (section !in sectionKeys) adapter.getSectionIds().forEach { sectionKeys[it.value] = it.key }
+        return sectionKeys[section]
+    }
+
+    private fun loadSection(section: SectionState, data: SectionData, retained: Set<SectionState>? = null): Boolean {
+        val subsections = data.subsectionsById.map { sectionIndex[it] }
+        val keepLayout = retained != null && section in retained && section.hasLayoutState && section.isLoaded &&
+                section.hasSameChildren(data, subsections)
+        if (!keepLayout) section.resetLayout()
+
+        var kept = keepLayout
+        val idsToCheck = ArrayList<Int>()
+        subsections.forEachIndexed { i, it ->
+            val id = data.subsectionsById[i]
+            val itemCount = data.subsectionItemCounts[i]
+            if (!it.hasLayoutState) {
+                it.deferLoad(loader, keyOf(id), itemCount)
+            } else if (keepLayout && it in retained!! && it.isLoaded && it.totalItems == itemCount) {
+                idsToCheck.add(id)
+            } else {
+                kept = false
+                it.deferLoad(loader, keyOf(id), itemCount)
+            }
+        }
+        data.subsections = subsections
+        section.load(data)
+
+        // The shared data is only populated again once this section is done with it.
+        idsToCheck.forEach {
+            adapter.populateSection(keyOf(it) to sectionData)
+            if (!loadSection(sectionIndex[it], sectionData, retained)) kept = false
         }
+        return kept
+    }
+
+    /**
+     * Set when a change reaches a section that is not in the graph yet, and the change can't be placed against a
+     * placeholder holding it. The graph is reloaded from the adapter before the next layout pass that is not a
+     * pre-layout, as a reload drops the layout state the pre-layout works from.
+     */
+    private var needsReload = false
+
+    private val SectionState.isInGraph: Boolean
+        get() {
+            var section = this
+            while (section !== root) section = section.parent ?: return false
+            return true
+        }
+
+    /**
+     * The section to apply an item change to. A change to a placeholder only adjusts its item count, as everything
+     * else is read from the adapter when it loads.
+     *
+     * A section under a placeholder is not in the graph yet. A change to it at adapter [position] goes to the
+     * placeholder holding the position instead, so the count is right and the section is loaded, change and all, when
+     * it is next reached. The graph and its layout state are left alone.
+     *
+     * @return Null if the change can't be applied, see [needsReload], or the section has been removed.
+     */
+    private fun sectionForChange(id: Int, position: Int = NO_POSITION): SectionState? {
+        if (needsReload || id !in sectionIndex) return null
+        val section = sectionIndex.peek(id)
+        if (section != null && section.isInGraph) return section
+        if (position != NO_POSITION) root.placeholderHolding(position)?.let { return it }
+        needsReload = true
+        return null
+    }
+
+    /**
+     * The section to add subsections to, if it is loaded. A section that is not loaded yet, or not in the graph yet,
+     * finds its subsections in the adapter when it loads, so there is nothing to do for it now.
+     */
+    private fun loadedParentForAddition(id: Int): SectionState? {
+        if (needsReload) return null
+        val section = sectionIndex.peek(id) ?: return null
+        return if (section.isLoaded && section.isInGraph) section else null
     }
 
     /*************************
@@ -54,9 +261,60 @@ internal class GraphManager(adapter: AdapterContract<*>) {
 
     internal var requestedAnchor: Anchor? = null
 
+    /**
+     * Distance to fill in front of the requested anchor after it has been laid out.
+     */
+    private var requestedFill = 0
+
+    /**
+     * Request a layout with the item at [position] [offset] from the start of the layout area.
+     *
+     * A positive offset is taken up by the items in front of the position, as far back as their extents are cached
+     * and they stack one after the other, see [stackedItemsStart]. The layout then starts from the first of those
+     * items, with the target at the offset. The part of the offset they don't cover is filled after the layout.
+     */
+    fun requestPosition(position: Int, offset: Int) {
+        if (offset <= 0) {
+            requestedAnchor = Anchor(position, -offset)
+            requestedFill = 0
+            return
+        }
+        val limit = stackedItemsStart(position)
+        var head = position
+        var covered = 0
+        while (covered < offset && head > limit) {
+            val extent = extentCache[head - 1]
+            if (extent == ExtentCache.NO_EXTENT) break
+            head -= 1
+            covered += extent
+        }
+        requestedAnchor = Anchor(head, Math.max(0, covered - offset))
+        requestedFill = if (head == 0) 0 else Math.max(0, offset - covered)
+    }
+
+    /**
+     * Start of the items in front of [position] whose extents add up to the distance to it. These are the items held
+     * directly by the section holding [position], back to its header or the subsection before, and only if that
+     * section and every section above it are linear. Otherwise items may share lines or be laid out around headers,
+     * so this is [position] itself.
+     */
+    private fun stackedItemsStart(position: Int): Int {
+        if (position <= 0 || position >= root.totalItems) return position
+        val section = root.sectionHolding(position)
+        var ancestor: SectionState? = section
+        while (ancestor != null) {
+            if (ancestor.baseConfig !is LinearSectionConfig) return position
+            ancestor = ancestor.parent
+        }
+        return section.startOfItemsBefore(position)
+    }
+
     fun layout(helper: RootLayoutHelper) {
+        helper.extentCache = extentCache
+        helper.graph = this
         if (!helper.isPreLayout) {
-            //doSectionMoves()
+            // Queued updates were notified after the change that asked for the reload, so they go on top of it.
+            if (needsReload) reload(adapter)
             doSectionUpdates()
         }
 
@@ -66,6 +324,11 @@ internal class GraphManager(adapter: AdapterContract<*>) {
             requestedAnchor = null
         }
         root.layout(helper, 0, 0, helper.layoutWidth)
+        if (requestedFill > 0) {
+            val fill = requestedFill
+            requestedFill = 0
+            scrollBy(-fill, helper)
+        }
         val sectionHeight = root.height
         if (sectionHeight < helper.layoutLimit) {
             val overscroll = scrollBy(root.height - helper.layoutLimit, helper)
@@ -75,14 +338,13 @@ internal class GraphManager(adapter: AdapterContract<*>) {
         if (helper.isPreLayout) {
             doSectionRemovals()
         }
-
-//        if (hasRequestedPosition && requestedPositionOffset != 0) {
-//            scrollBy(requestedPositionOffset, helper)
-//        }
     }
 
     fun scrollBy(d: Int, helper: RootLayoutHelper): Int {
+        helper.extentCache = extentCache
+        helper.graph = this
         requestedAnchor = null
+        requestedFill = 0
 //        Log.d("Graph", "scrollBy($d)")
         if (d == 0) return 0
         // If d is +ve, then scrolling to end.
@@ -133,95 +395,287 @@ internal class GraphManager(adapter: AdapterContract<*>) {
     private fun fillBottom(dy: Int, helper: RootLayoutHelper) = root.fillBottom(dy, helper)
     private fun trimTop(scrolled: Int, helper: RootLayoutHelper) = root.trimTop(scrolled, helper)
     private fun trimBottom(scrolled: Int, helper: RootLayoutHelper) = root.trimBottom(scrolled, helper)
-    fun postLayout() = root.postLayout()
+    /**
+     * Drop the layout state of sections left without views after each layout.
+     */
+    var compactLayoutState = false
+
+    fun postLayout() = root.postLayout(compactLayoutState)
+
+    /*************************
+     * Scroll estimation
+     *************************/
+
+    /**
+     * Extents of items measured during layout and scroll.
+     */
+    internal val extentCache = ExtentCache()
+
+    /**
+     * Record the [extent] of the item at [position] against the section holding it.
+     */
+    internal fun onItemMeasured(position: Int, extent: Int) {
+        if (position < 0 || position >= root.totalItems) return
+        root.sectionHolding(position).onItemMeasured(extent)
+    }
+
+    /**
+     * Estimated extent of all the content. Each section estimates its items from its own measurements, and the
+     * estimates are kept added up through the graph, so this is O(1). [estimator] covers sections where nothing has
+     * been measured yet.
+     */
+    fun estimateContentExtent(estimator: ExtentEstimator) = root.estimateExtent(estimator)
+
+    /**
+     * Estimated distance from the start of the content to the start of the layout area. The head of each layer is
+     * followed down from the root, adding up the estimates of everything in front of it.
+     */
+    fun estimateScrollOffset(estimator: ExtentEstimator): Int {
+        if (root.numViews == 0) return 0
+        return root.estimateScrollOffset(estimator)
+    }
+
+    /**
+     * Estimated distance from the start of the layout area to the start of the item at [position]. Negative when the
+     * item is before the layout area.
+     */
+    fun estimateDistanceTo(position: Int, estimator: ExtentEstimator)
+            = root.estimateExtentBefore(position, estimator) - estimateScrollOffset(estimator)
+
+    /**
+     * Position to jump to before smooth scrolling to [target], or [NO_POSITION] if the target is within
+     * [jumpThreshold] of the layout area by estimated distance. The jump lands a layout area's worth of items short of
+     * the target, so only the final stretch is scrolled through.
+     */
+    fun jumpPositionFor(target: Int, estimator: ExtentEstimator, jumpThreshold: Int): Int {
+        if (root.numViews == 0) return NO_POSITION
+        val distance = estimateDistanceTo(target, estimator)
+        if (Math.abs(distance) <= jumpThreshold) return NO_POSITION
+        val span = root.lastAttachedPosition - root.firstAttachedPosition + 1
+        return if (distance > 0) Math.max(0, target - span) else Math.min(root.totalItems - 1, target + span)
+    }
+
+    /**
+     * Adapter position of the start of the innermost section holding [position], which is its header if it has one.
+     * Items held directly by the root are their own start.
+     */
+    fun sectionStartOf(position: Int): Int {
+        if (position < 0 || position >= root.totalItems) return position
+        val section = root.sectionHolding(position)
+        return if (section === root) position else section.positionInAdapter
+    }
 
     /*************************
      * Scheduling section changes
      *************************/
 
-    private data class ScheduledSectionRemoval(val section: Int, val parent: Int)
+    private data class ScheduledSectionAddition(val section: Int, val parent: Int, val position: Int)
 
-    private data class ScheduledSectionUpdate(val section: Int, val config: SectionConfig)
+    /**
+     * Additions held back while a section batch is open, in the order they were notified.
+     */
+    private var sectionBatch: ArrayList<ScheduledSectionAddition>? = null
 
-    //private data class ScheduledSectionMove(val section: Int, val fromParent: Int, val fromPosition: Int, val toParent: Int, val toPosition: Int)
+    /**
+     * Sections queued for removal, with the ids of their parents in parallel.
+     */
+    private val removals = SectionIdTable()
+    private var removalParents = IntArray(8)
+    /**
+     * Sections queued for update, with config snapshots in parallel. Only the last update for a section is kept. Held
+     * in arrays, keyed by id, so queueing is O(1) and applying updates allocates nothing.
+     */
+    private val updates = SectionIdTable()
+    private var updateConfigs = arrayOfNulls<SectionConfig>(8)
 
-    private val sectionsToRemove = arrayListOf<ScheduledSectionRemoval>()
-    private val sectionsToUpdate = arrayListOf<ScheduledSectionUpdate>()
-    //private val sectionsToMove = arrayListOf<ScheduledSectionMove>()
+    /**
+     * Config snapshot of the last section added. Sections added with equivalent configs share it.
+     */
+    private var lastAddedConfig: SectionConfig? = null
 
     fun sectionAdded(parent: Int, position: Int, config: SectionConfig): Int {
-        val newSection = config.makeSection()
-        sectionIndex[parent].insertSection(position, newSection)
+        val snapshot = config.snapshot(lastAddedConfig)
+        lastAddedConfig = snapshot
+        val newSection = snapshot.makeSection()
+        val batch = sectionBatch
+        if (batch != null) {
+            val id = sectionIndex.add(newSection)
+            batch.add(ScheduledSectionAddition(id, parent, position))
+            return id
+        }
+        loadedParentForAddition(parent)?.insertSection(position, newSection)
         return sectionIndex.add(newSection)
     }
 
+    fun beginSectionBatch() {
+        if (sectionBatch != null) throw IllegalStateException("Section batch already open.")
+        sectionBatch = arrayListOf()
+    }
+
+    /**
+     * Insert the sections added since [beginSectionBatch]. Additions are grouped by parent, keeping their order, so
+     * each parent recomputes its subsection positions once.
+     *
+     * @return Ids of the added sections, in the order they were added.
+     */
+    fun commitSectionBatch(): IntArray {
+        val batch = sectionBatch ?: throw IllegalStateException("No section batch open.")
+        sectionBatch = null
+
+        val additionsByParent = LinkedHashMap<Int, ArrayList<ScheduledSectionAddition>>()
+        batch.forEach { additionsByParent.getOrPut(it.parent) { arrayListOf() }.add(it) }
+        additionsByParent.forEach { (parent, additions) ->
+            loadedParentForAddition(parent)?.insertSections(IntArray(additions.size) { additions[it].position },
+                                                            additions.map { sectionIndex[it.section] })
+        }
+        return IntArray(batch.size) { batch[it].section }
+    }
+
     fun queueSectionRemoved(section: Int, parent: Int) {
-        sectionsToRemove.add(ScheduledSectionRemoval(section, parent))
+        if (section !in sectionIndex) return
+        dequeueSectionUpdate(section)
+        val i = removals.add(section)
+        if (i == removalParents.size) removalParents = removalParents.copyOf(i * 2)
+        removalParents[i] = parent
     }
 
+    /**
+     * Queue a configuration change, replacing any change already queued for the section. Nothing is queued, or
+     * copied, if [config] is equivalent to the config the section has now, and updates to a section that has been
+     * removed, or is queued for removal, are dropped.
+     */
     fun queueSectionUpdated(section: Int, config: SectionConfig) {
-        sectionsToUpdate.add(ScheduledSectionUpdate(section, config))
+        if (section !in sectionIndex || section in removals) return
+        if (config.isEquivalentTo(sectionIndex.configOf(section))) {
+            dequeueSectionUpdate(section)
+            return
+        }
+        val queued = updates.indexOf(section)
+        if (queued != -1) {
+            updateConfigs[queued] = config.snapshot(updateConfigs[queued])
+            return
+        }
+        val i = updates.add(section)
+        if (i == updateConfigs.size) updateConfigs = updateConfigs.copyOf(i * 2)
+        updateConfigs[i] = config.snapshot(null)
+    }
+
+    private fun dequeueSectionUpdate(section: Int) {
+        val i = updates.indexOf(section)
+        if (i == -1) return
+        updates.removeAt(i)
+        // The last update took the place of the one removed.
+        val last = updates.size
+        updateConfigs[i] = updateConfigs[last]
+        updateConfigs[last] = null
     }
 
-    //fun queueSectionMoved(section: Int, fromParent: Int, fromPosition: Int, toParent: Int, toPosition: Int) {
-    //    sectionsToMove.add(ScheduledSectionMove(section, fromParent, fromPosition, toParent, toPosition))
-    //}
+    private fun clearSectionUpdates() {
+        for (i in 0 until updates.size) updateConfigs[i] = null
+        updates.clear()
+    }
 
     private fun doSectionRemovals() {
-        for (remove in sectionsToRemove) {
-            sectionIndex[remove.parent].removeSection(sectionIndex[remove.section])
-            sectionIndex.remove(remove.section)
+        for (i in 0 until removals.size) {
+            val section = removals.idAt(i)
+            // A section without a state was never reached, so there is nothing to unlink.
+            sectionIndex.peek(section)?.let { sectionIndex.peek(removalParents[i])?.removeSection(it) }
+            sectionIndex.remove(section)
         }
-        sectionsToRemove.clear()
+        removals.clear()
     }
 
     private fun doSectionUpdates() {
-        for ((section, config) in sectionsToUpdate) {
-            sectionIndex[section] = config.makeSection(sectionIndex[section])
+        for (i in 0 until updates.size) {
+            val section = updates.idAt(i)
+            val config = updateConfigs[i]!!
+            // The section may have been removed by a reload since the update was queued.
+            if (section !in sectionIndex) continue
+            val oldState = sectionIndex.peek(section)
+            if (oldState == null) {
+                sectionIndex[section] = config
+                continue
+            }
+            // Items may be a different size under the new config.
+            extentCache.invalidate(oldState.positionInAdapter, oldState.totalItems)
+            val newState = config.makeSection(oldState)
+            oldState.parent?.replaceSubsection(oldState, newState)
+            sectionIndex[section] = newState
         }
+        clearSectionUpdates()
     }
 
-    //private fun doSectionMoves() {
-    //    for (move in sectionsToMove) {
-    //        sections[move.fromParent).removeSection(move.fromPosition)
-    //        sections[move.toParent).insertSection(move.toPosition, sections[move.section))
-    //    }
-    //    sectionsToMove.clear()
-    //}
-
     /*************************
      * Item events
      *************************/
-    fun addHeader(sectionId: Int) {
-        sectionIndex[sectionId].addHeader()
+    fun addHeader(sectionId: Int, position: Int = NO_POSITION) {
+        sectionForChange(sectionId, position)?.addHeader()
     }
 
-    fun removeHeader(sectionId: Int) {
-        sectionIndex[sectionId].removeHeader()
+    fun removeHeader(sectionId: Int, position: Int = NO_POSITION) {
+        sectionForChange(sectionId, position)?.removeHeader()
     }
 
-    fun addFooter(sectionId: Int) {
-        sectionIndex[sectionId].addFooter()
+    fun addFooter(sectionId: Int, position: Int = NO_POSITION) {
+        sectionForChange(sectionId, position)?.addFooter()
     }
 
-    fun removeFooter(sectionId: Int) {
-        sectionIndex[sectionId].removeFooter()
+    fun removeFooter(sectionId: Int, position: Int = NO_POSITION) {
+        sectionForChange(sectionId, position)?.removeFooter()
     }
 
-    fun addItems(sectionId: Int, childStart: Int, itemCount: Int) {
+    /**
+     * Add [itemCount] items to a section at [childStart], which are at adapter [position] once added.
+     */
+    fun addItems(sectionId: Int, childStart: Int, itemCount: Int, position: Int = NO_POSITION) {
         if (itemCount == 0) return
-        sectionIndex[sectionId].addItems(childStart, itemCount)
+        sectionForChange(sectionId, position)?.addItems(childStart, itemCount)
     }
 
-    fun removeItems(sectionId: Int, childStart: Int, itemCount: Int) {
+    /**
+     * Remove [itemCount] items of a section from adapter [position].
+     */
+    fun removeItems(sectionId: Int, position: Int, itemCount: Int) {
         if (itemCount == 0) return
-        sectionIndex[sectionId].removeItems(childStart, itemCount)
+        sectionForChange(sectionId, position)?.removeItems(position, itemCount)
     }
 
-    fun moveItems(fromSection: Int, toSection: Int, from: Int, to: Int, itemCount: Int) {
-        if (itemCount == 0) return
-        sectionIndex[fromSection].removeItems(from, itemCount)
-        sectionIndex[toSection].addItems(to, itemCount)
+    /**
+     * Move [section] from [fromParent] to child position [toPosition] in [toParent], as its [itemCount] items move from
+     * adapter position [from] to [to]. Moves are applied in order with item changes, so the graph has the section in
+     * its new place for both layout passes.
+     *
+     * The state of the section is relinked, so it keeps its layout state. Where the section is under a placeholder,
+     * or lands under one, only the item counts of the placeholder change there.
+     */
+    fun moveSection(section: Int, fromParent: Int, toParent: Int, toPosition: Int, from: Int, to: Int,
+                    itemCount: Int) {
+        if (needsReload || section !in sectionIndex) return
+        if (itemCount > 0) extentCache.invalidateFrom(Math.min(from, to))
+        val state = sectionIndex.peek(section)
+        val source = sectionIndex.peek(fromParent)
+        val linked = state != null && source != null && state.parent === source && source.isInGraph
+        if (linked && fromParent == toParent) {
+            source!!.moveSubsection(state!!, toPosition)
+            return
+        }
+
+        if (linked) {
+            source!!.removeSection(state!!)
+        } else if (itemCount > 0) {
+            root.removeItems(from, itemCount)
+        }
+
+        val destination = loadedParentForAddition(toParent)
+        if (destination == null) {
+            // Lands under a placeholder, which reads the section from the adapter when it loads.
+            if (itemCount > 0) sectionForChange(toParent, to)?.addItems(-1, itemCount)
+            return
+        }
+        val moved = if (linked) state!! else sectionIndex[section].apply {
+            deferLoad(loader, keyOf(section), itemCount)
+        }
+        destination.insertSection(toPosition, moved)
     }
 
     override fun toString(): String {
@@ -229,25 +683,150 @@ internal class GraphManager(adapter: AdapterContract<*>) {
     }
 }
 
-private class SectionManager {
-    private var numSectionsSeen = 0
-    private val sectionIndex = SparseArray<SectionState>()
+/**
+ * Registry of section states. Ids index straight into an array of slots, and slots freed by removed sections are
+ * reused, so lookup is O(1) and the registry only grows to the largest number of sections alive at once. Each reuse
+ * bumps the slot's generation, which is tagged into the high bits of the id, so a stale id is caught instead of
+ * resolving to whichever section took over its slot.
+ *
+ * A section can be registered by its configuration alone, in which case its state is only made when it is first
+ * looked up.
+ */
+internal class SectionManager {
+    private companion object {
+        const val SLOT_BITS = 20
+        const val SLOT_MASK = (1 shl SLOT_BITS) - 1
+        // Keep ids positive; -1 is used for sections without an id.
+        const val GENERATION_MASK = (1 shl (31 - SLOT_BITS)) - 1
+        const val NO_SLOT = -1
+    }
+
+    private var sections = arrayOfNulls<SectionState>(16)
+    /**
+     * Configurations of sections that do not have a state yet.
+     */
+    private var configs = arrayOfNulls<SectionConfig>(16)
+    private var generations = IntArray(16)
+    /**
+     * Free slots form a stack linked through this array.
+     */
+    private var nextFreeSlot = IntArray(16)
+    private var firstFreeSlot = NO_SLOT
+    private var numSlots = 0
 
     fun add(section: SectionState): Int {
-        val id = numSectionsSeen
-        numSectionsSeen += 1
-        sectionIndex.put(id, section)
-        return id
+        val slot = acquireSlot()
+        sections[slot] = section
+        return idOf(slot)
+    }
+
+    /**
+     * Register a section without making its state. The state is made from [config] on the first [get].
+     */
+    fun add(config: SectionConfig): Int {
+        val slot = acquireSlot()
+        configs[slot] = config
+        return idOf(slot)
+    }
+
+    private fun acquireSlot(): Int {
+        if (firstFreeSlot != NO_SLOT) {
+            val slot = firstFreeSlot
+            firstFreeSlot = nextFreeSlot[slot]
+            return slot
+        }
+        if (numSlots > SLOT_MASK) throw IllegalStateException("Too many sections.")
+        ensureCapacity(numSlots + 1)
+        numSlots += 1
+        return numSlots - 1
     }
 
     fun remove(section: Int) {
-        sectionIndex.remove(section)
+        if (!isLive(section)) return
+        val slot = section and SLOT_MASK
+        sections[slot] = null
+        configs[slot] = null
+        generations[slot] = (generations[slot] + 1) and GENERATION_MASK
+        nextFreeSlot[slot] = firstFreeSlot
+        firstFreeSlot = slot
+    }
+
+    operator fun get(id: Int): SectionState
+            = getOrNull(id) ?: throw IllegalArgumentException("Stale or unknown section id $id.")
+
+    fun getOrNull(id: Int): SectionState? {
+        if (!isLive(id)) return null
+        val slot = id and SLOT_MASK
+        return sections[slot] ?: configs[slot]!!.makeSection().also {
+            sections[slot] = it
+            configs[slot] = null
+        }
     }
 
-    operator fun get(id: Int): SectionState = sectionIndex[id]
+    /**
+     * The state of a section, without making it.
+     *
+     * @return Null if the section does not have a state yet, or the id is stale.
+     */
+    fun peek(id: Int): SectionState? {
+        if (!isLive(id)) return null
+        return sections[id and SLOT_MASK]
+    }
+
+    operator fun contains(id: Int) = isLive(id)
+
+    /**
+     * The configuration of a section, whether or not it has a state yet.
+     */
+    fun configOf(id: Int): SectionConfig {
+        if (!isLive(id)) throw IllegalArgumentException("Stale or unknown section id $id.")
+        val slot = id and SLOT_MASK
+        return sections[slot]?.baseConfig ?: configs[slot]!!
+    }
+
+    /**
+     * True if the section is registered but does not have a state yet.
+     */
+    fun isPending(id: Int) = isLive(id) && sections[id and SLOT_MASK] == null
+
+    /**
+     * Remove all sections except those with the given [ids].
+     */
+    fun retainAll(ids: Set<Int>) {
+        for (slot in 0 until numSlots) {
+            if ((sections[slot] != null || configs[slot] != null) && idOf(slot) !in ids) remove(idOf(slot))
+        }
+    }
 
     operator fun set(id: Int, newSection: SectionState) {
-        sectionIndex.put(id, newSection)
+        if (!isLive(id)) throw IllegalArgumentException("Stale or unknown section id $id.")
+        sections[id and SLOT_MASK] = newSection
+        configs[id and SLOT_MASK] = null
+    }
+
+    /**
+     * Replace the configuration of a section that does not have a state yet.
+     */
+    operator fun set(id: Int, config: SectionConfig) {
+        if (!isPending(id)) throw IllegalArgumentException("Section id $id is unknown or already has a state.")
+        configs[id and SLOT_MASK] = config
+    }
+
+    private fun isLive(id: Int): Boolean {
+        val slot = id and SLOT_MASK
+        return id >= 0 && slot < numSlots && generations[slot] == id ushr SLOT_BITS &&
+                (sections[slot] != null || configs[slot] != null)
+    }
+
+    private fun idOf(slot: Int) = (generations[slot] shl SLOT_BITS) or slot
+
+    private fun ensureCapacity(capacity: Int) {
+        if (sections.size >= capacity) return
+        val newSize = Math.max(capacity, sections.size * 2)
+        sections = sections.copyOf(newSize)
+        configs = configs.copyOf(newSize)
+        generations = generations.copyOf(newSize)
+        nextFreeSlot = nextFreeSlot.copyOf(newSize)
     }
 }
 
@@ -257,6 +836,13 @@ private class SectionManager {
 abstract class SectionState(val baseConfig: SectionConfig, oldState: SectionState? = null) {
     private companion object {
         const val ENABLE_LAYOUT_LOGGING = false
+
+        /**
+         * Number of recent measurements kept in the average item extent of each section.
+         */
+        const val MAX_EXTENT_SAMPLES = 1000
+
+        val layerPool = ObjectPool<LayerStack<LayoutState>>()
     }
 
     internal val anchor: Anchor get() = layoutState.babushka { state ->
@@ -270,13 +856,95 @@ abstract class SectionState(val baseConfig: SectionConfig, oldState: SectionStat
     /**
      * A stack of states. Plm, hlm, flm, slm. Except in special circumstances only the top one should be accessed at
      * a time.
+     *
+     * Created the first time the section is reached. In compact mode, a section left without views after a layout
+     * gives its layers back to the pool, see [postLayout], so only sections that are laid out hold layout state.
+     */
+    private var layers: LayerStack<LayoutState>? = null
+    private val layoutState: LayerStack<LayoutState> get() = layers ?: acquireLayers()
+
+    /**
+     * Padding extents of released layers. They outlive a reset, so they are kept for when the layers are reacquired.
+     */
+    private var releasedPaddingTop = 0
+    private var releasedPaddingBottom = 0
+
+    private fun acquireLayers(): LayerStack<LayoutState> {
+        // Layers are only wanted once layout, fill, or anchor resolution reaches the section.
+        ensureLoaded()
+        val layers = layerPool.acquire() ?: LayerStack(ArrayList<LayoutState>(4).apply {
+            add(LayoutState())
+            if (ENABLE_FOOTER) add(FooterLayoutState())
+            if (ENABLE_HEADER) add(HeaderLayoutState())
+            if (ENABLE_PADDING) add(PaddingLayoutState())
+        }.toTypedArray())
+        if (ENABLE_PADDING) {
+            val pls = layers[PADDING_LAYER] as PaddingLayoutState
+            pls.paddingTop = releasedPaddingTop
+            pls.paddingBottom = releasedPaddingBottom
+        }
+        this.layers = layers
+        return layers
+    }
+
+    private fun releaseLayers(layers: LayerStack<LayoutState>) {
+        if (ENABLE_PADDING) {
+            val pls = layers[PADDING_LAYER] as PaddingLayoutState
+            releasedPaddingTop = pls.paddingTop
+            releasedPaddingBottom = pls.paddingBottom
+        }
+        this.layers = null
+        layerPool.release(layers)
+    }
+
+    internal val hasLayoutState get() = layers != null
+
+    /**
+     * Loads a placeholder section, which only holds its item count until it is first reached. Null once loaded.
+     */
+    private var loader: SectionLoader? = null
+    private var loaderKey: Any? = null
+
+    internal val isLoaded get() = loader == null
+
+    /**
+     * Make this section a placeholder holding only [itemCount], to be loaded by [loader] when it is first reached.
+     * Any state from an earlier load is dropped.
      */
-    private val layoutState = Stack<LayoutState>()
-    internal val disappearedHeight get() = layoutState.peek().disappearedOrRemovedHeight
-    internal val height get() = layoutState.peek().bottom
-    internal val numViews get() = layoutState.peek().numViews
+    internal fun deferLoad(loader: SectionLoader, key: Any?, itemCount: Int) {
+        layers?.let { layers ->
+            layers.forEach { it.reset() }
+            releaseLayers(layers)
+        }
+        for (i in 0 until subsections.size) subsections[i].parent = null
+        subsections.clear()
+        childSlots.clear()
+        childItems.clear()
+        childExtents.clear()
+        childUnmeasuredLines.clear()
+        firstStaleSubsectionIndex = 0
+        numChildren = 0
+        hasHeader = false
+        hasFooter = false
+        parent = null
+        totalItems = itemCount
+        this.loader = loader
+        loaderKey = key
+    }
+
+    private fun ensureLoaded() {
+        val loader = loader ?: return
+        this.loader = null
+        loader.load(this, loaderKey)
+        loaderKey = null
+    }
+
+    // Released layers are in their reset state, which is also the state of new layers.
+    internal val disappearedHeight get() = layers?.peek()?.disappearedOrRemovedHeight ?: 0
+    internal val height get() = layers?.peek()?.bottom ?: 0
+    internal val numViews get() = layers?.peek()?.numViews ?: 0
     internal fun resetLayout() {
-        layoutState.forEach { it.reset() }
+        layers?.forEach { it.reset() }
         subsections.forEach { it.resetLayout() }
     }
 
@@ -290,6 +958,7 @@ abstract class SectionState(val baseConfig: SectionConfig, oldState: SectionStat
     var numChildren = 0
         private set(value) {
             field = value
+            estimateChanged()
         }
 
     /**
@@ -300,6 +969,8 @@ abstract class SectionState(val baseConfig: SectionConfig, oldState: SectionStat
             if (totalItemsAreImmutable) return
             parent?.itemCountsChangedInSubsection(this, value - field)
             field = value
+            epoch.value += 1
+            estimateChanged()
         }
 
     /**
@@ -308,6 +979,10 @@ abstract class SectionState(val baseConfig: SectionConfig, oldState: SectionStat
     private var totalItemsAreImmutable = false
 
     internal var parent: SectionState? = null
+        set(value) {
+            field = value
+            if (value != null) adoptEpoch(value.epoch)
+        }
 
     /**
      * Sorted list of subsections.
@@ -315,32 +990,135 @@ abstract class SectionState(val baseConfig: SectionConfig, oldState: SectionStat
     internal val subsections: ArrayList<SectionState>
 
     /**
-     * Position of this section in the adapter.
+     * Number of child slots taken by each subsection; that is the subsection itself plus the items between it and the
+     * previous subsection. Indexed in step with [subsections] so child positions can be resolved in O(log n).
+     */
+    private val childSlots: FenwickTree
+
+    /**
+     * Total items in each subsection, indexed in step with [subsections].
+     */
+    private val childItems: FenwickTree
+
+    /**
+     * Estimated extent of each subsection from the items measured in it, and the number of lines in each subsection
+     * still left to the [ExtentEstimator], indexed in step with [subsections]. The estimate of the subsections in front
+     * of a position is a prefix sum, so estimates never walk more than the path from the root to the position.
      */
-    internal var positionInAdapter = 0
-        get() = field
+    private val childExtents: FenwickTree
+    private val childUnmeasuredLines: FenwickTree
+
+    /**
+     * Total and count of recent extents measured for items held directly by this section. Sections are laid out in
+     * different ways, so each keeps its own average rather than sharing one across the graph.
+     */
+    private var measuredExtentSum = 0L
+    private var measuredExtentSamples = 0
+
+    /**
+     * Index of this section in the parent's [subsections]. May be stale after structural changes to the parent; always
+     * go through [indexOfSubsection].
+     */
+    private var indexInParent = -1
+
+    /**
+     * Subsections from this index on may have a stale [indexInParent]. Renumbering is deferred until an index is next
+     * needed, so a run of inserts or removals costs a single pass over the later subsections.
+     */
+    private var firstStaleSubsectionIndex = 0
+
+    /**
+     * Position of this section in the adapter. Subsections do not store a position, instead it is resolved from the
+     * parent's child index on demand, and cached until the next change to the graph. Only the position of a section
+     * without a parent can be set.
+     */
+    internal var positionInAdapter: Int
+        get() {
+            val parent = parent ?: return basePosition
+            if (cachedPositionEpoch != epoch.value) {
+                cachedPosition = parent.positionOfSubsection(parent.indexOfSubsection(this))
+                cachedPositionEpoch = epoch.value
+            }
+            return cachedPosition
+        }
+        set(value) {
+            basePosition = value
+            epoch.value += 1
+        }
+
+    private var basePosition = 0
+    private var cachedPosition = 0
+    private var cachedPositionEpoch = -1
+
+    /**
+     * Counts changes to item counts and to the shape of the graph. Cached adapter positions are only valid for the
+     * epoch in which they were resolved. Every section in a graph shares the counter of the root, so a change in one
+     * graph leaves the cached positions of other graphs alone.
+     */
+    private class PositionEpoch {
+        var value = 0
+    }
+
+    private var epoch = PositionEpoch()
+
+    /**
+     * Count changes on [epoch] from now on, as this section and everything under it has joined its graph.
+     */
+    private fun adoptEpoch(epoch: PositionEpoch) {
+        if (this.epoch === epoch) return
+        this.epoch = epoch
+        cachedPositionEpoch = -1
+        for (i in 0 until subsections.size) subsections[i].adoptEpoch(epoch)
+    }
+
+    internal var hasHeader = false
+        set(value) {
+            field = value
+            epoch.value += 1
+            estimateChanged()
+        }
+    internal var hasFooter = false
         set(value) {
-            subsections.forEach { it.positionInAdapter += value - field }
             field = value
+            estimateChanged()
         }
 
     init {
-        layoutState.push(LayoutState())
-        if (ENABLE_FOOTER) layoutState.push(FooterLayoutState())
-        if (ENABLE_HEADER) layoutState.push(HeaderLayoutState())
-        if (ENABLE_PADDING) layoutState.push(PaddingLayoutState())
         if (oldState != null) {
-            layoutState[0].copy(oldState.layoutState[0])
-            if (ENABLE_FOOTER) layoutState[FOOTER_LAYER].copy(oldState.layoutState[FOOTER_LAYER])
-            if (ENABLE_HEADER) layoutState[HEADER_LAYER].copy(oldState.layoutState[HEADER_LAYER])
-            if (ENABLE_PADDING) layoutState[PADDING_LAYER].copy(oldState.layoutState[PADDING_LAYER])
+            // A new state for a section in a graph stays on the epoch of the graph.
+            epoch = oldState.epoch
+            oldState.layers?.let { old ->
+                layoutState[0].copy(old[0])
+                if (ENABLE_FOOTER) layoutState[FOOTER_LAYER].copy(old[FOOTER_LAYER])
+                if (ENABLE_HEADER) layoutState[HEADER_LAYER].copy(old[HEADER_LAYER])
+                if (ENABLE_PADDING) layoutState[PADDING_LAYER].copy(old[PADDING_LAYER])
+            }
+            releasedPaddingTop = oldState.releasedPaddingTop
+            releasedPaddingBottom = oldState.releasedPaddingBottom
             totalItems = oldState.totalItems
             numChildren = oldState.numChildren
+            hasHeader = oldState.hasHeader
+            hasFooter = oldState.hasFooter
             subsections = oldState.subsections
-            positionInAdapter = oldState.positionInAdapter
+            childSlots = oldState.childSlots
+            childItems = oldState.childItems
+            childExtents = oldState.childExtents
+            childUnmeasuredLines = oldState.childUnmeasuredLines
+            measuredExtentSum = oldState.measuredExtentSum
+            measuredExtentSamples = oldState.measuredExtentSamples
+            positionInAdapter = oldState.basePosition
             parent = oldState.parent
+            indexInParent = oldState.indexInParent
+            loader = oldState.loader
+            loaderKey = oldState.loaderKey
+            // Take over the subsections; the parent is relinked by replaceSubsection.
+            subsections.forEach { it.parent = this }
         } else {
             subsections = ArrayList()
+            childSlots = FenwickTree()
+            childItems = FenwickTree()
+            childExtents = FenwickTree()
+            childUnmeasuredLines = FenwickTree()
         }
     }
 
@@ -348,9 +1126,6 @@ abstract class SectionState(val baseConfig: SectionConfig, oldState: SectionStat
      * Access items
      *************************/
 
-    internal var hasHeader = false
-    internal var hasFooter = false
-
     internal fun getHeader(helper: LayoutHelper): Child? =
             if (hasHeader) {
                 ItemChild.wrap(positionInAdapter, helper)
@@ -413,22 +1188,35 @@ abstract class SectionState(val baseConfig: SectionConfig, oldState: SectionStat
 
     inline private fun <T> findAndWrap(position: Int, wrapSection: (SectionState) -> T,
                                        wrapItem: (viewPosition: Int) -> T): T {
-        var hiddenItems = positionInAdapter + if (hasHeader) 1 else 0
-        var lastSectionPosition = 0
-
-        for ((i, it) in subsections.withIndex()) {
-            if (it.positionInAdapter - hiddenItems + i > position) {
-                break
-            } else if (it.positionInAdapter - hiddenItems + i == position) {
-                return wrapSection(it)
-            } else {
-                hiddenItems += it.totalItems
-                lastSectionPosition = i
-            }
-        }
-        return wrapItem(hiddenItems + position - lastSectionPosition)
+        // Last subsection at or before the child position.
+        val index = childSlots.countWithSumAtMost(position + 1) - 1
+        if (index == -1) return wrapItem(positionInAdapter + (if (hasHeader) 1 else 0) + position)
+
+        val section = subsections[index]
+        val sectionPosition = childPositionOfSubsection(index)
+        if (sectionPosition == position) return wrapSection(section)
+        return wrapItem(section.positionInAdapter + section.totalItems + position - sectionPosition - 1)
     }
 
+    /**
+     * Child position of the subsection at [index] in [subsections].
+     */
+    private fun childPositionOfSubsection(index: Int) = childSlots.sum(index + 1) - 1
+
+    /**
+     * Adapter position of the subsection at [index] in [subsections]. This is the position of this section, the
+     * header, and all the items in front of the subsection, both those that are children of this section and those in
+     * prior subsections.
+     */
+    private fun positionOfSubsection(index: Int)
+            = positionInAdapter + (if (hasHeader) 1 else 0) + childSlots.sum(index + 1) - (index + 1) +
+            childItems.sum(index)
+
+    /**
+     * Number of subsections with a child position before [position].
+     */
+    private fun subsectionsBeforeChildPosition(position: Int) = childSlots.countWithSumAtMost(position)
+
     /*************************
      * Utility
      *************************/
@@ -443,7 +1231,7 @@ abstract class SectionState(val baseConfig: SectionConfig, oldState: SectionStat
 
     fun layout(helper: LayoutHelper, left: Int, top: Int, right: Int, numViewsBefore: Int = 0) {
         if (totalItems == 0) {
-            layoutState.peek().reset()
+            layers?.peek()?.reset()
             return
         }
 
@@ -466,7 +1254,7 @@ abstract class SectionState(val baseConfig: SectionConfig, oldState: SectionStat
      */
     internal fun layout(rootHelper: RootLayoutHelper, left: Int, top: Int, right: Int) {
         if (totalItems == 0) {
-            layoutState.peek().reset()
+            layers?.peek()?.reset()
             return
         }
 
@@ -488,13 +1276,41 @@ abstract class SectionState(val baseConfig: SectionConfig, oldState: SectionStat
         }
     }
 
-    internal fun postLayout() {
-        layoutState.asReversed().forEach { it.postLayout() }
-        subsections.forEach { it.postLayout() }
+    /**
+     * @param compact Release the layers of sections left without views.
+     */
+    internal fun postLayout(compact: Boolean = false) {
+        // Runs over every section after each layout, so walk by index rather than through iterators.
+        layers?.let { layers ->
+            for (i in layers.size - 1 downTo 0) layers[i].postLayout()
+            if (compact && layers.isAllReset()) releaseLayers(layers)
+        }
+        for (i in 0 until subsections.size) subsections[i].postLayout(compact)
+    }
+
+    private fun LayerStack<LayoutState>.isAllReset(): Boolean {
+        for (i in 0 until size) if (!this[i].isReset) return false
+        return true
     }
 
     internal val atTop get() = layoutState.babushka { it.atTop(this@SectionState) }
 
+    /**
+     * Adapter position of the first item with a view, or [NO_POSITION] if there are none. The head of each layer is
+     * followed down the graph, so this is O(depth).
+     */
+    internal val firstAttachedPosition: Int
+        get() = if (numViews == 0) NO_POSITION else layoutState.babushka { it.firstAttachedPosition(this@SectionState) }
+
+    /**
+     * Adapter position of the last item with a view, or [NO_POSITION] if there are none.
+     */
+    internal val lastAttachedPosition: Int
+        get() = if (numViews == 0) NO_POSITION else layoutState.babushka { it.lastAttachedPosition(this@SectionState) }
+
+    private fun attachedPositionOfChild(position: Int, first: Boolean): Int
+            = findAndWrap(position, { if (first) it.firstAttachedPosition else it.lastAttachedPosition }, { it })
+
     fun isChildAtTop(position: Int) = findAndWrap(position, { it.atTop }, { true })
 
     /**
@@ -554,43 +1370,253 @@ abstract class SectionState(val baseConfig: SectionConfig, oldState: SectionStat
         }
 
         /*
-         * Position is within content. It may be in a subsection or an item of this section. Calculating the child
-         * position is a little difficult as it must account for interleaved child items and subsections.
+         * Position is within content. It may be in a subsection or an item of this section. Subsection positions are
+         * indexed, so the last subsection starting at or before the position is found with a binary search.
          */
-        val headerCount = if (hasHeader) 1 else 0
-        var offset = positionInAdapter + headerCount
-        var childrenAccountedFor = 0 + headerCount
-
         val sls = layoutState[0]
-        for (section in subsections) {
-            if (anchor.position < section.positionInAdapter) {
-                // Position is before this subsection, so it must be a child item not a member of a subsection.
-                sls.headPosition = childrenAccountedFor + anchor.position - offset - headerCount
-                sls.overdraw = anchor.overdraw
-                return true
-            }
-
-            // Add items before this subsection (but after the last subsection) to children count.
-            childrenAccountedFor += section.positionInAdapter - offset
-
-            if (section.setLayoutPositionFromAnchor(anchor)) {
-                // Requested position was within the subsection so store it as the layout position of this section.
-                sls.headPosition = childrenAccountedFor - headerCount
-                return true
-            }
+        val index = indexOfSubsectionStartingBy(anchor.position)
+        if (index == -1) {
+            // Position is a child item before any subsection.
+            sls.headPosition = anchor.position - positionInAdapter - (if (hasHeader) 1 else 0)
+            sls.overdraw = anchor.overdraw
+            return true
+        }
 
-            // Update offset to be after the subsection content.
-            offset = section.positionInAdapter + section.totalItems
-            // Account for this subsection.
-            childrenAccountedFor += 1
+        val section = subsections[index]
+        if (section.setLayoutPositionFromAnchor(anchor)) {
+            // Requested position was within the subsection so store it as the layout position of this section.
+            sls.headPosition = childPositionOfSubsection(index)
+            return true
         }
 
-        // Position must be a child item after the last subsection.
-        sls.headPosition = childrenAccountedFor + anchor.position - offset - headerCount
+        // Position is a child item after the subsection.
+        sls.headPosition = childPositionOfSubsection(index) + 1 + anchor.position -
+                (section.positionInAdapter + section.totalItems)
         sls.overdraw = anchor.overdraw
         return true
     }
 
+    /**
+     * Index of the last subsection starting at or before [position], or -1 if there is none. Subsection positions are
+     * indexed, so this is a binary search.
+     */
+    private fun indexOfSubsectionStartingBy(position: Int): Int {
+        var low = 0
+        var high = subsections.size
+        while (low < high) {
+            val mid = (low + high) ushr 1
+            if (positionOfSubsection(mid) <= position) low = mid + 1 else high = mid
+        }
+        return low - 1
+    }
+
+    /**
+     * The innermost section holding [position], which must be within this section. Found in O(depth log n) by
+     * searching down through the subsection indexes.
+     */
+    internal fun sectionHolding(position: Int): SectionState {
+        val index = indexOfSubsectionStartingBy(position)
+        if (index == -1) return this
+        val section = subsections[index]
+        return if (position < section.positionInAdapter + section.totalItems) section.sectionHolding(position) else this
+    }
+
+    /*************************
+     * Scroll estimation
+     *************************/
+
+    /**
+     * Number of items laid out side by side, so that a line of that many items takes the extent of one item.
+     */
+    internal open val itemsPerLine: Int get() = 1
+
+    /**
+     * An item held directly by this section was measured at [extent].
+     */
+    internal fun onItemMeasured(extent: Int) {
+        if (measuredExtentSamples == MAX_EXTENT_SAMPLES) {
+            // Drop an average sample to make room.
+            measuredExtentSum -= measuredExtentSum / measuredExtentSamples
+            measuredExtentSamples -= 1
+        }
+        measuredExtentSum += extent
+        measuredExtentSamples += 1
+        estimateChanged()
+    }
+
+    /**
+     * The number of items laid out side by side changed, so the lines of this section have to be estimated again.
+     */
+    internal fun itemsPerLineChanged() = estimateChanged()
+
+    /**
+     * Extent of [lineCount] lines of items in this section from the items measured in it, or 0 if none have been.
+     */
+    private fun measuredLines(lineCount: Int): Int {
+        if (measuredExtentSamples == 0) return 0
+        return Math.min(Int.MAX_VALUE.toLong(), measuredExtentSum * lineCount / measuredExtentSamples).toInt()
+    }
+
+    /**
+     * Estimated extent of [lineCount] lines of items in this section. Until an item in the section is measured, the
+     * estimate comes from [estimator].
+     */
+    private fun estimateLines(lineCount: Int, estimator: ExtentEstimator): Int {
+        if (measuredExtentSamples == 0) return estimator.estimateExtent(lineCount)
+        return measuredLines(lineCount)
+    }
+
+    private fun linesFor(itemCount: Int) = (itemCount + Math.max(1, itemsPerLine) - 1) / Math.max(1, itemsPerLine)
+
+    /**
+     * Lines of items held directly by this section, with the header and footer. All the items of a placeholder are
+     * taken to be held directly.
+     */
+    private val ownLines: Int
+        get() {
+            if (!isLoaded) return linesFor(totalItems)
+            val headerAndFooter = (if (hasHeader) 1 else 0) + (if (hasFooter) 1 else 0)
+            return headerAndFooter + linesFor(numChildren - subsections.size)
+        }
+
+    /**
+     * The part of the estimated extent of this section known from measured items, including the padding.
+     */
+    private val measuredExtent: Int
+        get() = baseConfig.paddingTop + baseConfig.paddingBottom + measuredLines(ownLines) + childExtents.total
+
+    /**
+     * Lines of this section and its subsections where nothing has been measured yet.
+     */
+    private val unmeasuredLines: Int
+        get() = (if (measuredExtentSamples == 0) ownLines else 0) + childUnmeasuredLines.total
+
+    /**
+     * Pass a change to the estimated extent of this section into the indexes of the parent, and on up to the root.
+     * Stops as soon as a section's estimate is unchanged.
+     */
+    private fun estimateChanged() {
+        parent?.subsectionEstimateChanged(this)
+    }
+
+    private fun subsectionEstimateChanged(subsection: SectionState) {
+        val index = indexOfSubsection(subsection)
+        if (index == -1) return
+        val extent = subsection.measuredExtent
+        val lines = subsection.unmeasuredLines
+        if (childExtents[index] == extent && childUnmeasuredLines[index] == lines) return
+        childExtents[index] = extent
+        childUnmeasuredLines[index] = lines
+        estimateChanged()
+    }
+
+    private fun insertSubsectionEstimate(index: Int, subsection: SectionState) {
+        childExtents.insert(index, subsection.measuredExtent)
+        childUnmeasuredLines.insert(index, subsection.unmeasuredLines)
+    }
+
+    /**
+     * Estimated extent of the first [count] subsections. O(log n).
+     */
+    private fun estimateSubsections(count: Int, estimator: ExtentEstimator)
+            = childExtents.sum(count) + estimator.estimateExtent(childUnmeasuredLines.sum(count))
+
+    /**
+     * Estimated extent of the whole section. The subsections are kept added up, so this is O(1).
+     */
+    internal fun estimateExtent(estimator: ExtentEstimator) = measuredExtent + estimator.estimateExtent(unmeasuredLines)
+
+    /**
+     * Estimated extent of the children, without the padding, header, or footer.
+     */
+    private fun estimateChildrenExtent(estimator: ExtentEstimator)
+            = estimateLines(linesFor(numChildren - subsections.size), estimator) + childExtents.total +
+            estimator.estimateExtent(childUnmeasuredLines.total)
+
+    /**
+     * Estimated extent from the start of this section to the start of the item at adapter [position].
+     */
+    internal fun estimateExtentBefore(position: Int, estimator: ExtentEstimator): Int {
+        val itemsBefore = position - positionInAdapter
+        if (itemsBefore <= 0) return 0
+        if (itemsBefore >= totalItems) return estimateExtent(estimator)
+        if (!isLoaded) return baseConfig.paddingTop + estimateLines(itemsBefore / Math.max(1, itemsPerLine), estimator)
+
+        val header = if (hasHeader) 1 else 0
+        val index = indexOfSubsectionStartingBy(position)
+        val inSubsection = index != -1 && position < subsections[index].positionInAdapter + subsections[index].totalItems
+        // Subsections wholly before the position.
+        val numBefore = if (inSubsection) index else index + 1
+        var extent = baseConfig.paddingTop + estimateSubsections(numBefore, estimator)
+        var childItemsBefore = itemsBefore - header - childItems.sum(numBefore)
+        if (inSubsection) {
+            val subsection = subsections[index]
+            childItemsBefore -= position - subsection.positionInAdapter
+            extent += subsection.estimateExtentBefore(position, estimator)
+        }
+        return extent + estimateLines(header + childItemsBefore / Math.max(1, itemsPerLine), estimator)
+    }
+
+    /**
+     * Estimated extent from the start of this section to the start of the layout area, following the head of each
+     * layer down the graph like [anchor], without making an anchor.
+     */
+    internal fun estimateScrollOffset(estimator: ExtentEstimator): Int {
+        val layers = layers ?: return 0
+        return layers.babushka { it.estimateScrollOffset(this@SectionState, estimator) }
+    }
+
+    /**
+     * Estimated extent of the children in front of the child at [position], plus what is scrolled past of that child.
+     * [overdraw] is what is scrolled past when the child is an item.
+     */
+    private fun estimateOffsetOfChild(position: Int, overdraw: Int, estimator: ExtentEstimator): Int {
+        val numBefore = subsectionsBeforeChildPosition(position)
+        val extent = estimateLines(Math.max(0, position - numBefore) / Math.max(1, itemsPerLine), estimator) +
+                estimateSubsections(numBefore, estimator)
+        return if (numBefore < subsections.size && childPositionOfSubsection(numBefore) == position) {
+            extent + subsections[numBefore].estimateScrollOffset(estimator)
+        } else {
+            extent + overdraw
+        }
+    }
+
+    /**
+     * Adapter position of the first of the items held directly by this section that run up to [position], which must
+     * be held directly by this section. The run starts after the header or the last subsection before [position].
+     * Nothing is known of the items in a placeholder, so then this is [position].
+     */
+    internal fun startOfItemsBefore(position: Int): Int {
+        if (!isLoaded) return position
+        val start = positionInAdapter + (if (hasHeader) 1 else 0)
+        if (position <= start) return position
+        val index = indexOfSubsectionStartingBy(position - 1)
+        if (index == -1) return start
+        val subsection = subsections[index]
+        return Math.max(start, subsection.positionInAdapter + subsection.totalItems)
+    }
+
+    /**
+     * The innermost placeholder holding adapter [position], or null if the position is only held by loaded sections.
+     * A position where one section starts and the one before it ends is taken to be in the later section, unless that
+     * one is loaded and the position is in no placeholder under it.
+     */
+    internal fun placeholderHolding(position: Int): SectionState? {
+        if (!isLoaded) return this
+        val index = indexOfSubsectionStartingBy(position)
+        if (index == -1) return null
+        val section = subsections[index]
+        val end = section.positionInAdapter + section.totalItems
+        if (position < end) section.placeholderHolding(position)?.let { return it }
+        // Items added to the end of a section start where it ends.
+        if (position == end) return section.placeholderHolding(position)
+        if (index > 0 && section.positionInAdapter == position) {
+            val before = subsections[index - 1]
+            if (before.positionInAdapter + before.totalItems == position) return before.placeholderHolding(position)
+        }
+        return null
+    }
+
     internal infix operator fun contains(viewHolder: RecyclerView.ViewHolder): Boolean {
 //        Log.d("SADFASDF", "pia = $positionInAdapter, vh pos = ${((viewHolder.itemView as LinearLayout).getChildAt(0) as TextView).text} vh lay = ${viewHolder.layoutPosition}, ss end = ${positionInAdapter + totalItems - 1}")
         if (viewHolder.adapterPosition == NO_POSITION) return false
@@ -712,37 +1738,45 @@ abstract class SectionState(val baseConfig: SectionConfig, oldState: SectionStat
      * Item management
      *************************/
 
+    /*
+     * The adapter already reflects any change by the time a placeholder is loaded, so changes to a placeholder only
+     * adjust its item count.
+     */
+
     internal fun addHeader() {
-        hasHeader = true
-        subsections.forEach { it.positionInAdapter += 1 }
+        if (isLoaded) hasHeader = true
         totalItems += 1
     }
 
     internal fun addFooter() {
-        hasFooter = true
+        if (isLoaded) hasFooter = true
         totalItems += 1
     }
 
     internal fun removeHeader() {
-        hasHeader = false
-        subsections.forEach { it.positionInAdapter -= 1 }
+        if (isLoaded) hasHeader = false
         totalItems -= 1
     }
 
     internal fun removeFooter() {
-        hasFooter = false
+        if (isLoaded) hasFooter = false
         totalItems -= 1
     }
 
     internal fun addItems(position: Int, itemCount: Int) {
+        if (!isLoaded) {
+            totalItems += itemCount
+            return
+        }
+
         var childPositionStart = position
         if (childPositionStart < 0) {
             childPositionStart = numChildren
         }
 
-        applyToSubsectionsAfterChildPosition(childPositionStart) { _, it ->
-            it.positionInAdapter += itemCount
-        }
+        // New items extend the run of items in front of the next subsection.
+        val firstAfter = subsectionsBeforeChildPosition(childPositionStart)
+        if (firstAfter < subsections.size) childSlots.add(firstAfter, itemCount)
 
         numChildren += itemCount
         totalItems += itemCount
@@ -752,28 +1786,40 @@ abstract class SectionState(val baseConfig: SectionConfig, oldState: SectionStat
         removeItemsInt(fromAdapterPosition, count)
     }
 
-    private fun removeItemsInt(removeFromAdapterPosition: Int, count: Int): Pair<Int, Int> {
-        if (count == 0) return 0 to 0
-        if (positionInAdapter + totalItems <= removeFromAdapterPosition) return 0 to 0 // Before removed items
+    /**
+     * @return The number of removed items before this section and the number removed from this section, packed with
+     * [packRemoval].
+     */
+    private fun removeItemsInt(removeFromAdapterPosition: Int, count: Int): Long {
+        if (count == 0) return packRemoval(0, 0)
+        // Before removed items
+        if (positionInAdapter + totalItems <= removeFromAdapterPosition) return packRemoval(0, 0)
 
         val itemsBeforeSection = Math.min(count, Math.max(0, positionInAdapter - removeFromAdapterPosition))
-        if (positionInAdapter >= removeFromAdapterPosition + count) return itemsBeforeSection to 0 //After removed items
+        // After removed items
+        if (positionInAdapter >= removeFromAdapterPosition + count) return packRemoval(itemsBeforeSection, 0)
 
         val itemsAfterSection = Math.max(0, (removeFromAdapterPosition + count) - (positionInAdapter + totalItems))
+        if (!isLoaded) {
+            val itemsInSection = count - itemsBeforeSection - itemsAfterSection
+            totalItems -= itemsInSection
+            return packRemoval(itemsBeforeSection, itemsInSection)
+        }
 
-        var currentRemoveFrom = Math.max(positionInAdapter, removeFromAdapterPosition)
+        // Positions are resolved as the removal goes, so everything after removed items moves up and the remaining
+        // items to remove always start from the same position.
+        val removeFrom = Math.max(positionInAdapter, removeFromAdapterPosition)
         var itemsRemaining = count - itemsBeforeSection - itemsAfterSection
         var itemsThatAreChildren = 0
         var itemsRemoved = 0
 
-        if (hasHeader && currentRemoveFrom == positionInAdapter) {
+        if (hasHeader && removeFrom == positionInAdapter) {
             itemsRemoved += 1
             itemsRemaining -= 1
-            currentRemoveFrom += 1
             hasHeader = false
         }
 
-        if (hasFooter && currentRemoveFrom + itemsRemaining >= positionInAdapter + totalItems) {
+        if (hasFooter && removeFrom + itemsRemaining >= positionInAdapter + totalItems - itemsRemoved) {
             itemsRemoved += 1
             itemsRemaining -= 1
             hasFooter = false
@@ -781,19 +1827,26 @@ abstract class SectionState(val baseConfig: SectionConfig, oldState: SectionStat
 
         if (itemsRemaining == 0) {
             totalItems -= itemsRemoved
-            return itemsBeforeSection to itemsRemoved
+            return packRemoval(itemsBeforeSection, itemsRemoved)
         }
 
-        var removedInSection = 0
         blockTotalItemChanges {
-            for (subsection in subsections) {
-                val (before, removed) = subsection.removeItemsInt(currentRemoveFrom, itemsRemaining)
-                removedInSection += before
-                subsection.positionInAdapter -= removedInSection
+            // Subsections ending at or before the removal are untouched, so start from the first one ending after it.
+            // Each subsection accounts for itself, its items, and the items in front of it.
+            val itemsBeforeRemoval = removeFrom - positionInAdapter - (if (hasHeader) 1 else 0)
+            val first = childSlots.countWithSumAtMost(itemsBeforeRemoval, childItems, -1)
+            for (i in first until subsections.size) {
+                val result = subsections[i].removeItemsInt(removeFrom, itemsRemaining)
+                val before = result.itemsBefore
+                val removed = result.itemsRemoved
+                if (before > 0) {
+                    childSlots.add(i, -before)
+                    epoch.value += 1
+                }
                 itemsThatAreChildren += before
-                currentRemoveFrom += before
                 itemsRemaining -= removed + before
                 itemsRemoved += removed
+                // The first subsection starting past the removal takes up the remaining items as those before it.
                 if (itemsRemaining == 0) break
             }
         }
@@ -803,7 +1856,7 @@ abstract class SectionState(val baseConfig: SectionConfig, oldState: SectionStat
         numChildren -= itemsThatAreChildren
         itemsRemoved += itemsThatAreChildren
 
-        return itemsBeforeSection to itemsRemoved
+        return packRemoval(itemsBeforeSection, itemsRemoved)
     }
 
     private inline fun blockTotalItemChanges(f: () -> Unit) {
@@ -813,14 +1866,8 @@ abstract class SectionState(val baseConfig: SectionConfig, oldState: SectionStat
     }
 
     internal fun itemCountsChangedInSubsection(child: SectionState, changedCount: Int) {
-        // Find child and adjust adapter position for sections after it.
-        val index = subsections.indexOfFirst { it == child }
-        if (index + 1 < subsections.size) {
-            for (i in (index + 1)..(subsections.size - 1)) {
-                subsections[i].positionInAdapter += changedCount
-            }
-        }
-
+        // Sections after the child pick up the change from the item counts index when their positions are resolved.
+        childItems.add(indexOfSubsection(child), changedCount)
         totalItems += changedCount
     }
 
@@ -834,71 +1881,223 @@ abstract class SectionState(val baseConfig: SectionConfig, oldState: SectionStat
             childInsertionPoint = numChildren
         }
 
-        var insertPoint = subsections.size
-        var firstTime = true
-        applyToSubsectionsAfterChildPosition(childInsertionPoint) { i, it ->
-            it.positionInAdapter += newSection.totalItems
-            if (firstTime) {
-                insertPoint = i
-                firstTime = false
-            }
+        val insertPoint = subsectionsBeforeChildPosition(childInsertionPoint)
+        val itemsBefore = if (insertPoint == 0) {
+            childInsertionPoint
+        } else {
+            childInsertionPoint - childPositionOfSubsection(insertPoint - 1) - 1
         }
+        // The items before the new section are split off from those in front of the following subsection.
+        if (insertPoint < subsections.size) childSlots.add(insertPoint, -itemsBefore)
+        childSlots.insert(insertPoint, itemsBefore + 1)
+        childItems.insert(insertPoint, newSection.totalItems)
+        insertSubsectionEstimate(insertPoint, newSection)
         subsections.add(insertPoint, newSection)
-
         newSection.parent = this
-        var numItemsInPriorSiblings = 0
-        if (insertPoint > 0) {
-            for (i in 0..(insertPoint - 1)) {
-                numItemsInPriorSiblings += subsections[i].totalItems
-            }
-        }
-        val priorChildrenThatAreItems = childInsertionPoint - insertPoint
-        newSection.positionInAdapter = positionInAdapter + priorChildrenThatAreItems + numItemsInPriorSiblings
+        newSection.indexInParent = insertPoint
+        firstStaleSubsectionIndex = Math.min(firstStaleSubsectionIndex, insertPoint + 1)
+
         numChildren += 1
         totalItems += newSection.totalItems
+        epoch.value += 1
     }
 
-    internal fun removeSection(section: SectionState) {
-        var indexOfSection: Int = -1
-        var afterSection = false
+    /**
+     * Insert several sections. Each position is treated as by [insertSection], after the insertions before it have
+     * been made. Child slots and item counts are rebuilt once for the whole run, rather than once per section.
+     */
+    internal fun insertSections(positions: IntArray, newSections: List<SectionState>) {
+        if (newSections.isEmpty()) return
+
+        // Work on a sorted array of subsection child positions, then rebuild the indexes from it.
+        var count = subsections.size
+        val childPositions = IntArray(count + newSections.size)
+        var lastChildPosition = -1
+        for (i in 0 until count) {
+            lastChildPosition += childSlots[i]
+            childPositions[i] = lastChildPosition
+        }
+        val merged = ArrayList<SectionState>(childPositions.size)
+        merged.addAll(subsections)
+
+        var children = numChildren
+        var itemsAdded = 0
+        newSections.forEachIndexed { i, newSection ->
+            val position = if (positions[i] < 0) children else positions[i]
+            val found = Arrays.binarySearch(childPositions, 0, count, position)
+            val insertPoint = if (found < 0) -found - 1 else found
+            System.arraycopy(childPositions, insertPoint, childPositions, insertPoint + 1, count - insertPoint)
+            count += 1
+            childPositions[insertPoint] = position
+            for (j in insertPoint + 1 until count) childPositions[j] += 1
+            merged.add(insertPoint, newSection)
+            children += 1
+            itemsAdded += newSection.totalItems
+        }
+
+        subsections.clear()
+        subsections.addAll(merged)
+        childSlots.clear()
+        childItems.clear()
+        childExtents.clear()
+        childUnmeasuredLines.clear()
+        lastChildPosition = -1
         subsections.forEachIndexed { i, it ->
-            if (afterSection) {
-                it.positionInAdapter -= section.totalItems
-            } else if (it === section) {
-                indexOfSection = i
-                afterSection = true
-            }
+            childSlots.add(childPositions[i] - lastChildPosition)
+            lastChildPosition = childPositions[i]
+            childItems.add(it.totalItems)
+            insertSubsectionEstimate(i, it)
+            it.parent = this
+            it.indexInParent = i
         }
+        firstStaleSubsectionIndex = count
+
+        numChildren = children
+        totalItems += itemsAdded
+        epoch.value += 1
+    }
+
+    internal fun removeSection(section: SectionState) {
+        val indexOfSection = indexOfSubsection(section)
         if (indexOfSection == -1) return
 
+        // Items in front of the removed section now run on into the next subsection.
+        val itemsBefore = childSlots.removeAt(indexOfSection) - 1
+        if (indexOfSection < childSlots.size) childSlots.add(indexOfSection, itemsBefore)
+        childItems.removeAt(indexOfSection)
+        childExtents.removeAt(indexOfSection)
+        childUnmeasuredLines.removeAt(indexOfSection)
         subsections.removeAt(indexOfSection)
+        firstStaleSubsectionIndex = Math.min(firstStaleSubsectionIndex, indexOfSection)
+        section.parent = null
+        section.indexInParent = -1
         totalItems -= section.totalItems
         numChildren -= 1
+        epoch.value += 1
+    }
+
+    /**
+     * Move a subsection to [toPosition], the child position it should have once it has been taken out of its current
+     * place. A negative position moves it to the end. Only the subsections between the old and new places are updated.
+     */
+    internal fun moveSubsection(section: SectionState, toPosition: Int) {
+        val from = indexOfSubsection(section)
+        if (from == -1) return
+        val fromPosition = childPositionOfSubsection(from)
+        val position = if (toPosition < 0) numChildren - 1 else toPosition
+        if (position == fromPosition) return
+
+        val to = if (position < fromPosition) {
+            subsectionsBeforeChildPosition(position)
+        } else {
+            subsectionsBeforeChildPosition(position + 1) - 1
+        }
+        val lo = Math.min(from, to)
+        val hi = Math.max(from, to)
+
+        // Resolve child positions for the span after the move. Subsections passed over shift by one place to fill the
+        // gap, those outside the span keep their positions.
+        val newPositions = IntArray(hi - lo + 1)
+        var oldPosition = childPositionOfSubsection(lo)
+        for (i in lo..hi) {
+            if (i > lo) oldPosition += childSlots[i]
+            if (i == from) continue
+            if (from < to) {
+                newPositions[i - lo - 1] = oldPosition - 1
+            } else {
+                newPositions[i - lo + 1] = oldPosition + 1
+            }
+        }
+        newPositions[to - lo] = position
+
+        var lastChildPosition = if (lo == 0) -1 else childPositionOfSubsection(lo - 1)
+        for (i in lo..hi) {
+            childSlots[i] = newPositions[i - lo] - lastChildPosition
+            lastChildPosition = newPositions[i - lo]
+        }
+        if (hi + 1 < childSlots.size) childSlots[hi + 1] = oldPosition + childSlots[hi + 1] - lastChildPosition
+        childItems.move(from, to)
+        childExtents.move(from, to)
+        childUnmeasuredLines.move(from, to)
+
+        subsections.add(to, subsections.removeAt(from))
+        for (i in lo..hi) subsections[i].indexInParent = i
+        epoch.value += 1
+    }
+
+    /**
+     * Replace a subsection with a new state for the same section, as when the section configuration is updated.
+     */
+    internal fun replaceSubsection(oldSection: SectionState, newSection: SectionState) {
+        val index = indexOfSubsection(oldSection)
+        subsections[index] = newSection
+        newSection.parent = this
+        newSection.indexInParent = index
+        epoch.value += 1
+        // The new state may be padded or laid out differently.
+        subsectionEstimateChanged(newSection)
+    }
+
+    /**
+     * Index of [subsection] in [subsections], or -1 if it is not a subsection of this section. O(1) unless subsections
+     * have been inserted or removed since the last lookup.
+     */
+    private fun indexOfSubsection(subsection: SectionState): Int {
+        if (isIndexOf(subsection, subsection.indexInParent)) return subsection.indexInParent
+        for (i in firstStaleSubsectionIndex until subsections.size) subsections[i].indexInParent = i
+        firstStaleSubsectionIndex = subsections.size
+        return if (isIndexOf(subsection, subsection.indexInParent)) subsection.indexInParent else -1
+    }
+
+    private fun isIndexOf(subsection: SectionState, index: Int)
+            = index >= 0 && index < subsections.size && subsections[index] === subsection
+
+    /**
+     * True if populated [data], with its subsections made into [newSubsections], has the same children as this section
+     * in the same child positions. Item counts may differ.
+     */
+    internal fun hasSameChildren(data: SectionData, newSubsections: List<SectionState>): Boolean {
+        if (numChildren != data.childCount || hasHeader != data.hasHeader) return false
+        if (subsections.size != newSubsections.size) return false
+        for (i in 0 until subsections.size) {
+            if (subsections[i] !== newSubsections[i]) return false
+            if (childPositionOfSubsection(i) != data.subsectionPositions[i]) return false
+        }
+        return true
     }
 
     internal fun load(data: SectionData) {
         numChildren = data.childCount
         positionInAdapter = data.adapterPosition
         hasHeader = data.hasHeader
-        totalItems = data.itemCount
         subsections.clear()
         subsections.addAll(data.subsections)
-    }
-
-    private inline fun applyToSubsectionsAfterChildPosition(childPositionStart: Int,
-                                                            crossinline f: (Int, SectionState) -> Unit) {
-        var hiddenItems = positionInAdapter
-        var applying = false
+        childSlots.clear()
+        childItems.clear()
+        childExtents.clear()
+        childUnmeasuredLines.clear()
+        var lastChildPosition = -1
+        data.subsectionPositions.forEach {
+            childSlots.add(it - lastChildPosition)
+            lastChildPosition = it
+        }
         subsections.forEachIndexed { i, it ->
-            if (applying) {
-                f(i, it)
-            } else if (it.positionInAdapter - hiddenItems + i >= childPositionStart) {
-                f(i, it)
-                applying = true
-            } else {
-                hiddenItems += it.totalItems
-            }
+            it.parent = this
+            it.indexInParent = i
+            childItems.add(it.totalItems)
+            insertSubsectionEstimate(i, it)
+        }
+        firstStaleSubsectionIndex = subsections.size
+        // Sections are loaded in no particular order, and the loaded item count of the parent already includes the
+        // items of this section, so the change must not ripple up into the parent's total.
+        val parent = parent
+        if (parent == null) {
+            totalItems = data.itemCount
+        } else {
+            parent.blockTotalItemChanges { totalItems = data.itemCount }
         }
+        epoch.value += 1
+        estimateChanged()
     }
 
     internal inline fun rightGutter(autoWidth: () -> Int)
@@ -909,7 +2108,7 @@ abstract class SectionState(val baseConfig: SectionConfig, oldState: SectionStat
 
     internal fun logGraph() {
         Log.d("GRAPH", "$this")
-        layoutState.asReversed().forEach { Log.d("GRAPH", "$it") }
+        for (i in layoutState.size - 1 downTo 0) Log.d("GRAPH", "${layoutState[i]}")
         subsections.forEach { it.logGraph() }
     }
 
@@ -1005,6 +2204,13 @@ abstract class SectionState(val baseConfig: SectionConfig, oldState: SectionStat
             numViews = 0
         }
 
+        /**
+         * True if the state is as after [reset] with nothing pending from the last layout pass.
+         */
+        internal open val isReset get() = numViews == 0 && numTemporaryViews == 0 && disappearedOrRemovedHeight == 0 &&
+                bottom == 0 && headPosition == UNSET_OR_BEFORE_CHILDREN && tailPosition == UNSET_OR_BEFORE_CHILDREN &&
+                left == 0 && right == 0 && overdraw == 0
+
         internal fun copy(old: LayoutState) {
             bottom = old.bottom
             headPosition = old.headPosition
@@ -1037,6 +2243,15 @@ abstract class SectionState(val baseConfig: SectionConfig, oldState: SectionStat
         }
 
         open fun atTop(section: SectionState) = section.isAtTop(this)
+
+        internal open fun firstAttachedPosition(section: SectionState)
+                = section.attachedPositionOfChild(headPosition, true)
+
+        internal open fun estimateScrollOffset(section: SectionState, estimator: ExtentEstimator)
+                = section.estimateOffsetOfChild(headPosition, overdraw, estimator)
+
+        internal open fun lastAttachedPosition(section: SectionState)
+                = section.attachedPositionOfChild(tailPosition, false)
     }
 
     internal abstract class InternalLayoutState : LayoutState() {
@@ -1050,6 +2265,8 @@ abstract class SectionState(val baseConfig: SectionConfig, oldState: SectionStat
             mode = 0
         }
 
+        override val isReset get() = mode == 0 && super.isReset
+
         override val string get() = "mode = $mode, ${super.string}"
         abstract fun anchor(section: SectionState): Anchor
 
@@ -1084,8 +2301,20 @@ abstract class SectionState(val baseConfig: SectionConfig, oldState: SectionStat
             section.anchor
         }
 
+        override fun estimateScrollOffset(section: SectionState, estimator: ExtentEstimator) = if (flagSet(TOP_ADDED)) {
+            overdraw
+        } else if (flagUnset(TOP_ADDED) && flagSet(BOTTOM_ADDED) && bottom + overdraw == paddingBottom) {
+            section.estimateExtent(estimator) - paddingBottom + overdraw
+        } else {
+            paddingTop + section.estimateScrollOffset(estimator)
+        }
+
         override fun atTop(section: SectionState) = PaddingLayoutManager.isAtTop(section, this)
 
+        // Padding has no views of its own.
+        override fun firstAttachedPosition(section: SectionState) = section.firstAttachedPosition
+        override fun lastAttachedPosition(section: SectionState) = section.lastAttachedPosition
+
         override fun layout(helper: LayoutHelper, section: SectionState) {
             PaddingLayoutManager.onLayout(helper, section, this)
         }
@@ -1117,8 +2346,21 @@ abstract class SectionState(val baseConfig: SectionConfig, oldState: SectionStat
             section.anchor
         }
 
+        override fun estimateScrollOffset(section: SectionState, estimator: ExtentEstimator)
+                = if (!section.hasHeader) section.estimateScrollOffset(estimator)
+                else if (headPosition == 0) overdraw
+                else section.estimateLines(1, estimator) + section.estimateScrollOffset(estimator)
+
         override fun atTop(section: SectionState) = HeaderLayoutManager.isAtTop(section, this)
 
+        override fun firstAttachedPosition(section: SectionState)
+                = if (section.hasHeader && headPosition == 0) section.positionInAdapter
+                else section.firstAttachedPosition
+
+        override fun lastAttachedPosition(section: SectionState)
+                = if (section.hasHeader && tailPosition == 0) section.positionInAdapter
+                else section.lastAttachedPosition
+
         override fun layout(helper: LayoutHelper, section: SectionState) {
             HeaderLayoutManager.onLayout(helper, section, this)
         }
@@ -1145,8 +2387,20 @@ abstract class SectionState(val baseConfig: SectionConfig, oldState: SectionStat
             section.anchor
         }
 
+        override fun estimateScrollOffset(section: SectionState, estimator: ExtentEstimator)
+                = if (section.hasFooter && headPosition == 1) section.estimateChildrenExtent(estimator) + overdraw
+                else section.estimateScrollOffset(estimator)
+
         override fun atTop(section: SectionState) = FooterLayoutManager.isAtTop(section, this)
 
+        override fun firstAttachedPosition(section: SectionState)
+                = if (section.hasFooter && headPosition == 1) section.positionInAdapter + section.totalItems - 1
+                else section.firstAttachedPosition
+
+        override fun lastAttachedPosition(section: SectionState)
+                = if (section.hasFooter && tailPosition == 1) section.positionInAdapter + section.totalItems - 1
+                else section.lastAttachedPosition
+
         override fun layout(helper: LayoutHelper, section: SectionState) {
             FooterLayoutManager.onLayout(helper, section, this)
         }
@@ -1174,15 +2428,10 @@ internal abstract class ChildInternal(var helper: LayoutHelper) : Child {
 
 private open class SectionChild(var section: SectionState, helper: LayoutHelper) : ChildInternal(helper) {
     companion object {
-        val pool = arrayListOf<SectionChild>()
+        val pool = ObjectPool<SectionChild>()
 
-        fun wrap(section: SectionState, helper: LayoutHelper): SectionChild {
-            return if (pool.isEmpty()) {
-                SectionChild(section, helper)
-            } else {
-                pool.removeAt(0).reInit(section, helper)
-            }
-        }
+        fun wrap(section: SectionState, helper: LayoutHelper)
+                = pool.acquire()?.reInit(section, helper) ?: SectionChild(section, helper)
     }
 
     private fun reInit(section: SectionState, helper: LayoutHelper): SectionChild {
@@ -1192,7 +2441,7 @@ private open class SectionChild(var section: SectionState, helper: LayoutHelper)
     }
 
     override fun done() {
-        pool.add(this)
+        pool.release(this)
     }
 
     override val numViews get() = section.numViews
@@ -1244,15 +2493,11 @@ private open class SectionChild(var section: SectionState, helper: LayoutHelper)
 private open class ItemChild(var view: View, helper: LayoutHelper, var positionInAdapter: Int) : ChildInternal(
         helper) {
     companion object {
-        val pool = arrayListOf<ItemChild>()
+        val pool = ObjectPool<ItemChild>()
 
         fun wrap(pos: Int, helper: LayoutHelper): ItemChild {
             val view = helper.getView(pos)
-            return if (pool.isEmpty()) {
-                ItemChild(view, helper, pos)
-            } else {
-                pool.removeAt(0).reInit(view, helper, pos)
-            }
+            return pool.acquire()?.reInit(view, helper, pos) ?: ItemChild(view, helper, pos)
         }
     }
 
@@ -1264,10 +2509,10 @@ private open class ItemChild(var view: View, helper: LayoutHelper, var positionI
     }
 
     override fun done() {
-        pool.add(this)
+        pool.release(this)
     }
 
-    override val isRemoved get() = view.rvLayoutParams.isItemRemoved
+    override val isRemoved get() = helper.isRemoved(view)
 
     override val measuredWidth get() = helper.getMeasuredWidth(view)
     override val measuredHeight get() = helper.getMeasuredHeight(view)
@@ -1282,8 +2527,8 @@ private open class ItemChild(var view: View, helper: LayoutHelper, var positionI
     override val bottom get() = helper.getBottom(view)
 
     override fun layout(left: Int, top: Int, right: Int, bottom: Int, numViewsBefore: Int) {
-        val m = view.rvLayoutParams
-        helper.layout(view, left, top, right, bottom, m.leftMargin, m.topMargin, m.rightMargin, m.bottomMargin)
+        helper.layout(view, left, top, right, bottom, helper.getMarginLeft(view), helper.getMarginTop(view),
+                      helper.getMarginRight(view), helper.getMarginBottom(view))
     }
 
     override fun fillTop(dy: Int, left: Int, top: Int, right: Int, bottom: Int, numViewsBefore: Int): Int {
@@ -1311,15 +2556,11 @@ private open class ItemChild(var view: View, helper: LayoutHelper, var positionI
 private class DisappearingItemChild(view: View, helper: LayoutHelper, positionInAdapter: Int) :
         ItemChild(view, helper, positionInAdapter) {
     companion object {
-        val pool = arrayListOf<DisappearingItemChild>()
+        val pool = ObjectPool<DisappearingItemChild>()
 
         fun wrap(pos: Int, helper: LayoutHelper): DisappearingItemChild {
             val view = helper.getView(pos)
-            return if (pool.isEmpty()) {
-                DisappearingItemChild(view, helper, pos)
-            } else {
-                pool.removeAt(0).reInit(view, helper)
-            }
+            return pool.acquire()?.reInit(view, helper) ?: DisappearingItemChild(view, helper, pos)
         }
     }
 
@@ -1330,7 +2571,7 @@ private class DisappearingItemChild(view: View, helper: LayoutHelper, positionIn
     }
 
     override fun done() {
-        pool.add(this)
+        pool.release(this)
     }
 
     override fun addToRecyclerView(i: Int) {
@@ -1346,15 +2587,9 @@ private class DisappearingItemChild(view: View, helper: LayoutHelper, positionIn
  */
 private class DummyChild(helper: LayoutHelper) : ChildInternal(helper) {
     companion object {
-        val pool = arrayListOf<DummyChild>()
+        val pool = ObjectPool<DummyChild>()
 
-        fun wrap(helper: LayoutHelper): DummyChild {
-            return if (pool.isEmpty()) {
-                DummyChild(helper)
-            } else {
-                pool.removeAt(0).reInit(helper)
-            }
-        }
+        fun wrap(helper: LayoutHelper) = pool.acquire()?.reInit(helper) ?: DummyChild(helper)
     }
 
     private fun reInit(helper: LayoutHelper): DummyChild {
@@ -1363,7 +2598,7 @@ private class DummyChild(helper: LayoutHelper) : ChildInternal(helper) {
     }
 
     override fun done() {
-        pool.add(this)
+        pool.release(this)
     }
 
     override val isRemoved get() = false
@@ -1,13 +1,17 @@
 package com.tonicartos.superslim.internal
 
 import android.support.v7.widget.RecyclerView
+import android.support.v7.widget.RecyclerView.NO_POSITION
 import com.tonicartos.superslim.AdapterContract
 
 internal interface ItemManagement {
     fun applyChanges(adapter: AdapterContract<*>, graph: GraphManager, recycler: RecyclerView.Recycler)
+    fun discardChanges()
     fun addItems(start: Int, count: Int)
     fun removeItems(start: Int, count: Int)
     fun moveItems(from: Int, to: Int, count: Int)
+    fun updateItems(start: Int, count: Int)
+    fun moveSection(section: Int, fromParent: Int, toParent: Int, toPosition: Int, from: Int, count: Int)
 }
 
 /**
@@ -16,94 +20,184 @@ internal interface ItemManagement {
 internal class ItemManager : ItemManagement {
     private val changes = ArrayList<Op>()
 
+    /**
+     * Section moves notified ahead of the removal of their items. The removal puts the move in its place among the
+     * other changes.
+     */
+    private val pendingSectionMoves = ArrayList<SectionMove>()
+    /**
+     * The queued section move taking in the insertions of its items, and how many items it has still to take.
+     */
+    private var insertingSectionMove: SectionMove? = null
+    private var itemsToInsert = 0
+
     override fun applyChanges(adapter: AdapterContract<*>, graph: GraphManager, recycler: RecyclerView.Recycler) {
+        // Moves whose items were never seen only relink the section. Any item changes went through as they were.
+        pendingSectionMoves.forEach {
+            it.count = 0
+            changes.add(it)
+        }
+        pendingSectionMoves.clear()
+        insertingSectionMove = null
         changes.forEach { it.apply(adapter, graph, recycler) }
         changes.clear()
     }
 
+    override fun discardChanges() {
+        changes.forEach { it.release() }
+        changes.clear()
+        pendingSectionMoves.forEach { it.release() }
+        pendingSectionMoves.clear()
+        insertingSectionMove = null
+    }
+
+    override fun moveSection(section: Int, fromParent: Int, toParent: Int, toPosition: Int, from: Int, count: Int) {
+        val move = SectionMove.acquire(section, fromParent, toParent, toPosition, from, count)
+        if (count == 0 || from == NO_POSITION) {
+            move.count = 0
+            changes.add(move)
+        } else {
+            pendingSectionMoves.add(move)
+        }
+    }
+
+    /**
+     * Take the items of a section move out of a removal, or an insertion, matching them.
+     *
+     * @return True if the change was taken by a section move.
+     */
+    private fun takenBySectionMove(start: Int, count: Int, removed: Boolean): Boolean {
+        if (removed) {
+            insertingSectionMove = null
+            for (i in 0 until pendingSectionMoves.size) {
+                val move = pendingSectionMoves[i]
+                if (move.from != start || move.count != count) continue
+                pendingSectionMoves.removeAt(i)
+                changes.add(move)
+                insertingSectionMove = move
+                itemsToInsert = count
+                return true
+            }
+            return false
+        }
+
+        val move = insertingSectionMove ?: return false
+        if (move.to == NO_POSITION) move.to = start
+        if (start != move.to + move.count - itemsToInsert || count > itemsToInsert) {
+            // Not the items of the section, so the move stays as far as it got.
+            insertingSectionMove = null
+            return false
+        }
+        itemsToInsert -= count
+        if (itemsToInsert == 0) insertingSectionMove = null
+        return true
+    }
+
+    /*
+     * Notifications are coalesced with the last queued change where possible, so bursts of single item notifications
+     * reach the graph as a few range operations.
+     */
+
     override fun addItems(start: Int, count: Int) {
+        if (count == 0) return
+        if (takenBySectionMove(start, count, false)) return
+        val last = changes.lastOrNull()
+        if (last is Add && start >= last.start && start <= last.start + last.count) {
+            // Inserted inside or next to the last added range.
+            last.count += count
+            return
+        }
         changes.add(Add.acquire(start, count))
     }
 
     override fun removeItems(start: Int, count: Int) {
+        if (count == 0) return
+        if (takenBySectionMove(start, count, true)) return
+        val last = changes.lastOrNull()
+        if (last is Remove && start <= last.start && last.start <= start + count) {
+            // Removed range touches the last removed range.
+            last.start = start
+            last.count += count
+            return
+        }
+        if (last is Add) {
+            // Items added and removed again before the graph has seen them cancel out.
+            val overlap = Math.min(start + count, last.start + last.count) - Math.max(start, last.start)
+            if (overlap > 0) {
+                last.count -= overlap
+                if (last.count == 0) {
+                    changes.removeAt(changes.size - 1)
+                    Add.release(last)
+                }
+                removeItems(start, count - overlap)
+                return
+            }
+        }
         changes.add(Remove.acquire(start, count))
     }
 
     override fun moveItems(from: Int, to: Int, count: Int) {
+        insertingSectionMove = null
         changes.add(Move.acquire(from, to, count))
     }
+
+    override fun updateItems(start: Int, count: Int) {
+        if (count == 0) return
+        insertingSectionMove = null
+        changes.add(Update.acquire(start, count))
+    }
 }
 
 private interface Op {
     fun apply(adapter: AdapterContract<*>, graph: GraphManager, recycler: RecyclerView.Recycler)
+
+    /**
+     * Return the op to its pool without applying it.
+     */
+    fun release()
 }
 
 private data class Add(var start: Int, var count: Int) : Op {
     companion object {
-        private val pool = arrayListOf<Add>()
-
-        fun acquire(start: Int, count: Int) =
-                if (pool.isEmpty()) {
-                    Add(start, count)
-                } else {
-                    pool.removeAt(0).apply {
-                        this.start = start
-                        this.count = count
-                    }
-                }
+        private val pool = ObjectPool<Add>()
+
+        fun acquire(start: Int, count: Int) = pool.acquire()?.apply {
+            this.start = start
+            this.count = count
+        } ?: Add(start, count)
 
         fun release(obj: Add) {
-            pool.add(obj)
+            pool.release(obj)
         }
     }
 
-    override fun apply(adapter: AdapterContract<*>, graph: GraphManager, recycler: RecyclerView.Recycler) {
-        var currentSection = 0
-        var currentStart = 0
-        var currentCount = 0
-        // Handle in chunks per section.
-        for (i in start until start + count) {
-            val about = adapter.getData(recycler.convertPreLayoutPositionToPostLayout(i))
-            when {
-                about.isHeader                  -> graph.addHeader(about.section)
-                about.isFooter                  -> graph.addFooter(about.section)
-                about.section == currentSection -> currentCount += 1
-                else                            -> {
-                    graph.addItems(currentSection, currentStart, currentCount)
-                    currentSection = about.section
-                    currentStart = about.position
-                    currentCount = 1
-                }
-            }
+    override fun release() = release(this)
 
-            if (i == start + count - 1) {
-                graph.addItems(currentSection, currentStart, currentCount)
-            }
-        }
+    override fun apply(adapter: AdapterContract<*>, graph: GraphManager, recycler: RecyclerView.Recycler) {
+        graph.extentCache.invalidateFrom(start)
+        addItemRange(adapter, graph, recycler, start, count)
         release(this)
     }
 }
 
 private data class Remove(var start: Int, var count: Int) : Op {
     companion object {
-        private val pool = arrayListOf<Remove>()
-
-        fun acquire(start: Int, count: Int) =
-                if (pool.isEmpty()) {
-                    Remove(start, count)
-                } else {
-                    pool.removeAt(0).apply {
-                        this.start = start
-                        this.count = count
-                    }
-                }
+        private val pool = ObjectPool<Remove>()
+
+        fun acquire(start: Int, count: Int) = pool.acquire()?.apply {
+            this.start = start
+            this.count = count
+        } ?: Remove(start, count)
 
         fun release(obj: Remove) {
-            pool.add(obj)
+            pool.release(obj)
         }
     }
 
+    override fun release() = release(this)
+
     override fun apply(adapter: AdapterContract<*>, graph: GraphManager, recycler: RecyclerView.Recycler) {
+        graph.extentCache.invalidateFrom(start)
         graph.root.removeItems(start, count)
         release(this)
     }
@@ -111,25 +205,161 @@ private data class Remove(var start: Int, var count: Int) : Op {
 
 private data class Move(var from: Int, var to: Int, var count: Int) : Op {
     companion object {
-        private val pool = arrayListOf<Move>()
-
-        fun acquire(from: Int, to: Int, count: Int) =
-                if (pool.isEmpty()) {
-                    Move(from, to, count)
-                } else {
-                    pool.removeAt(0).apply {
-                        this.from = from
-                        this.to = to
-                        this.count = count
-                    }
-                }
+        private val pool = ObjectPool<Move>()
+
+        fun acquire(from: Int, to: Int, count: Int) = pool.acquire()?.apply {
+            this.from = from
+            this.to = to
+            this.count = count
+        } ?: Move(from, to, count)
 
         fun release(obj: Move) {
-            pool.add(obj)
+            pool.release(obj)
         }
     }
 
+    override fun release() = release(this)
+
     override fun apply(adapter: AdapterContract<*>, graph: GraphManager, recycler: RecyclerView.Recycler) {
+        // Take the range out from where it was and put it back where it is now. Both ends are converted to post layout
+        // positions, the same as added items are.
+        graph.extentCache.invalidateFrom(Math.min(from, to))
+        removeItemRange(graph, recycler, from, count)
+        addItemRange(adapter, graph, recycler, to, count)
+        release(this)
+    }
+}
+
+/**
+ * A section moved, with its items going from adapter position [from] to [to]. A move with no items only relinks the
+ * section.
+ */
+private data class SectionMove(var section: Int, var fromParent: Int, var toParent: Int, var toPosition: Int,
+                               var from: Int, var to: Int, var count: Int) : Op {
+    companion object {
+        private val pool = ObjectPool<SectionMove>()
 
+        fun acquire(section: Int, fromParent: Int, toParent: Int, toPosition: Int, from: Int, count: Int) =
+                pool.acquire()?.apply {
+                    this.section = section
+                    this.fromParent = fromParent
+                    this.toParent = toParent
+                    this.toPosition = toPosition
+                    this.from = from
+                    this.to = NO_POSITION
+                    this.count = count
+                } ?: SectionMove(section, fromParent, toParent, toPosition, from, NO_POSITION, count)
+
+        fun release(obj: SectionMove) {
+            pool.release(obj)
+        }
+    }
+
+    override fun release() = release(this)
+
+    override fun apply(adapter: AdapterContract<*>, graph: GraphManager, recycler: RecyclerView.Recycler) {
+        // Both ends are converted to post layout positions, the same as moved items are.
+        graph.moveSection(section, fromParent, toParent, toPosition, recycler.postLayoutPositionOf(from),
+                          recycler.postLayoutPositionOf(to), count)
+        release(this)
+    }
+}
+
+/**
+ * Items changed in place. The graph is unchanged, but their extents may not be.
+ */
+private data class Update(var start: Int, var count: Int) : Op {
+    companion object {
+        private val pool = ObjectPool<Update>()
+
+        fun acquire(start: Int, count: Int) = pool.acquire()?.apply {
+            this.start = start
+            this.count = count
+        } ?: Update(start, count)
+
+        fun release(obj: Update) {
+            pool.release(obj)
+        }
+    }
+
+    override fun release() = release(this)
+
+    override fun apply(adapter: AdapterContract<*>, graph: GraphManager, recycler: RecyclerView.Recycler) {
+        graph.extentCache.invalidate(start, count)
+        release(this)
+    }
+}
+
+private fun RecyclerView.Recycler.postLayoutPositionOf(position: Int) =
+        if (position == NO_POSITION) NO_POSITION else convertPreLayoutPositionToPostLayout(position)
+
+private val dataRuns = AdapterContract.DataRuns()
+
+/**
+ * Remove the items in the range from the graph. When the range maps to a contiguous range after layout, it is removed
+ * in one call. Otherwise each position is removed on its own, last first, so the positions still to go stay put.
+ */
+private fun removeItemRange(graph: GraphManager, recycler: RecyclerView.Recycler, start: Int, count: Int) {
+    if (count == 0) return
+    val firstPosition = recycler.convertPreLayoutPositionToPostLayout(start)
+    val lastPosition = recycler.convertPreLayoutPositionToPostLayout(start + count - 1)
+    if (lastPosition - firstPosition == count - 1) {
+        graph.root.removeItems(firstPosition, count)
+        return
+    }
+
+    for (i in start + count - 1 downTo start) {
+        graph.root.removeItems(recycler.convertPreLayoutPositionToPostLayout(i), 1)
+    }
+}
+
+/**
+ * Add the items in the range to the graph. When the range maps to a contiguous range after layout, the adapter
+ * describes it in runs and each run is added in one call. Otherwise the range is added in chunks per section.
+ */
+private fun addItemRange(adapter: AdapterContract<*>, graph: GraphManager, recycler: RecyclerView.Recycler,
+                         start: Int, count: Int) {
+    if (count == 0) return
+    val firstPosition = recycler.convertPreLayoutPositionToPostLayout(start)
+    val lastPosition = recycler.convertPreLayoutPositionToPostLayout(start + count - 1)
+    if (lastPosition - firstPosition == count - 1) {
+        adapter.getDataRuns(firstPosition, count, dataRuns)
+        var position = firstPosition
+        for (run in 0 until dataRuns.size) {
+            when {
+                dataRuns.isHeader(run) -> graph.addHeader(dataRuns.section(run), position)
+                dataRuns.isFooter(run) -> graph.addFooter(dataRuns.section(run), position)
+                else                   -> graph.addItems(dataRuns.section(run), dataRuns.position(run),
+                                                         dataRuns.count(run), position)
+            }
+            position += dataRuns.count(run)
+        }
+        return
+    }
+
+    var currentSection = 0
+    var currentStart = 0
+    var currentCount = 0
+    var currentPosition = 0
+    // Handle in chunks per section.
+    for (i in start until start + count) {
+        val position = recycler.convertPreLayoutPositionToPostLayout(i)
+        val about = adapter.getData(position)
+        when {
+            about.isHeader                  -> graph.addHeader(about.section, position)
+            about.isFooter                  -> graph.addFooter(about.section, position)
+            about.section == currentSection -> currentCount += 1
+            else                            -> {
+                graph.addItems(currentSection, currentStart, currentCount, currentPosition)
+                currentSection = about.section
+                currentStart = about.position
+                currentCount = 1
+                currentPosition = position
+            }
+        }
+
+        if (i == start + count - 1) {
+            graph.addItems(currentSection, currentStart, currentCount, currentPosition)
+        }
     }
 }
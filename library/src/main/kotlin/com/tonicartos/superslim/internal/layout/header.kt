@@ -129,7 +129,8 @@ private object InlineHlm : BaseHlm {
                                      helper.layoutWidth - section.rightGutter { 0 }, helper,
                                      if (state.mode == ADDED) 1 else 0)
         state.bottom += section.height - before
-        state.tailPosition = 1
+        // The tail stays on the header until the content has views.
+        if (section.numViews > 0) state.tailPosition = 1 else if (state.mode == ADDED) state.tailPosition = 0
         return Math.min(dy, filled)
     }
 
@@ -2,6 +2,7 @@ package com.tonicartos.superslim.internal
 
 import android.support.v7.widget.RecyclerView
 import android.view.View
+import com.tonicartos.superslim.ExtentEstimator
 import com.tonicartos.superslim.LayoutHelper
 import com.tonicartos.superslim.SectionConfig
 import com.tonicartos.superslim.internal.SectionState.LayoutState
@@ -14,17 +15,19 @@ internal class RootLayoutHelper(val manager: ManagerHelper, val config: ReadWrit
         private var helperPool = LayoutHelperPool()
     }
 
-    internal fun acquireSubsectionHelper(y: Int, left: Int, right: Int, paddingTop: Int, paddingBottom: Int,
-                                         viewsBefore: Int, layoutState: LayoutState,
-                                         tellParentViewsChangedBy: (Int) -> Unit,
-                                         tellParentAboutTemporaryView: (Int) -> Unit)
-            = helperPool.acquire(this, left, y, right - left, paddingTop, paddingBottom, viewsBefore, layoutState,
-                                 tellParentViewsChangedBy, tellParentAboutTemporaryView)
+    /**
+     * Acquire a helper for a subsection. Changes in the number of views are passed up to [parent], or nowhere for a
+     * section laid out directly by the root.
+     */
+    internal fun acquireSubsectionHelper(parent: LayoutHelper?, y: Int, left: Int, right: Int, paddingTop: Int,
+                                         paddingBottom: Int, viewsBefore: Int, layoutState: LayoutState)
+            = helperPool.acquire(this, parent, left, y, right - left, paddingTop, paddingBottom, viewsBefore,
+                                 layoutState)
 
     inline fun <T> useSubsectionHelper(y: Int, left: Int, right: Int, paddingTop: Int, paddingBottom: Int,
                                        viewsBefore: Int, layoutState: LayoutState, block: (LayoutHelper) -> T): T {
-        val helper = acquireSubsectionHelper(y, left, right, paddingTop, paddingBottom, viewsBefore, layoutState,
-                                             {}, {})
+        val helper = acquireSubsectionHelper(null, y, left, right, paddingTop, paddingBottom, viewsBefore,
+                                             layoutState)
         val r = block(helper)
         helper.release()
         return r
@@ -44,25 +47,59 @@ internal class RootLayoutHelper(val manager: ManagerHelper, val config: ReadWrit
     override var stickyStartInset = 0
     override var stickyEndInset = 0
 
+    /**
+     * Told the extent of every item measured during layout and scroll.
+     */
+    var extentEstimator: ExtentEstimator? = null
+
+    /**
+     * Remembers the extent of measured items.
+     */
+    var extentCache: ExtentCache? = null
+
+    /**
+     * Told the extent of every item measured, so it is counted in the estimate of the section holding it.
+     */
+    var graph: GraphManager? = null
+
+    override fun measure(view: View, usedWidth: Int, usedHeight: Int) {
+        config.measure(view, usedWidth, usedHeight)
+        // Views in the pre-layout have pre-layout positions, which the cache and estimates are not keyed by.
+        if (state.isPreLayout) return
+        val viewType = manager.getItemViewType(view)
+        val extent = config.getMeasuredHeight(view)
+        // An item measured again at the extent it had is only counted once, however often it is scrolled past.
+        val position = manager.getPosition(view)
+        val isNew = extentCache?.put(position, viewType, extent) ?: true
+        if (isNew) {
+            extentEstimator?.onItemMeasured(viewType, extent)
+            graph?.onItemMeasured(position, extent)
+        }
+    }
+
+    /**
+     * Clear state left over from the last layout or scroll so the helper can be reused for the next one.
+     */
+    internal fun reset(): RootLayoutHelper {
+        layoutLimitExtension = 0
+        stickyStartInset = 0
+        stickyEndInset = 0
+        return this
+    }
+
     override fun toString(): String = "RootHelper(ignoredHeight = $layoutLimitExtension, layoutLimit = $layoutLimit, layoutWidth = $layoutWidth, \nconfig = $config,\nstate = $state)\n"
             .replace("\n", "\n\t")
 
     private class LayoutHelperPool {
-        private val pool = arrayListOf<LayoutHelper>()
-
-        fun acquire(root: RootLayoutHelper, x: Int, y: Int, width: Int, paddingTop: Int, paddingBottom: Int,
-                    viewsBefore: Int, layoutState: LayoutState, tellParentViewsChangedBy: (Int) -> Unit,
-                    tellParentAboutTemporaryView: (Int) -> Unit) =
-                if (pool.isEmpty()) {
-                    LayoutHelper(root, x, y, width, paddingTop, paddingBottom, viewsBefore, layoutState,
-                                 tellParentViewsChangedBy, tellParentAboutTemporaryView)
-                } else {
-                    pool.removeAt(0).reInit(root, x, y, width, paddingTop, paddingBottom, viewsBefore, layoutState,
-                                            tellParentViewsChangedBy, tellParentAboutTemporaryView)
-                }
+        private val pool = ObjectPool<LayoutHelper>()
+
+        fun acquire(root: RootLayoutHelper, parent: LayoutHelper?, x: Int, y: Int, width: Int, paddingTop: Int,
+                    paddingBottom: Int, viewsBefore: Int, layoutState: LayoutState) =
+                pool.acquire()?.reInit(root, parent, x, y, width, paddingTop, paddingBottom, viewsBefore, layoutState)
+                        ?: LayoutHelper(root, parent, x, y, width, paddingTop, paddingBottom, viewsBefore, layoutState)
 
         fun release(helper: LayoutHelper) {
-            pool.add(helper)
+            pool.release(helper)
         }
     }
 }
@@ -137,6 +174,9 @@ internal interface ManagerHelper {
 
     fun removeView(child: View, recycler: RecyclerView.Recycler)
 
+    fun getItemViewType(child: View): Int
+    fun getPosition(child: View): Int
+
     val supportsPredictiveItemAnimations: Boolean
 }
 
@@ -171,15 +211,15 @@ internal interface ReadWriteLayoutHelper : ReadLayoutHelper, WriteLayoutHelper {
 
 class AttachedView private constructor(private var view: View, private var helper: LayoutHelper) {
     companion object {
-        private val pool = ArrayList<AttachedView>()
-        internal fun wrap(view: View, helper: LayoutHelper) = if (pool.size >= 1) pool.removeAt(0).apply {
+        private val pool = ObjectPool<AttachedView>()
+        internal fun wrap(view: View, helper: LayoutHelper) = pool.acquire()?.apply {
             this.view = view
             this.helper = helper
-        } else AttachedView(view, helper)
+        } ?: AttachedView(view, helper)
     }
 
     fun done() {
-        pool.add(this)
+        pool.release(this)
     }
 
     val left get() = helper.getLeft(this.view)
@@ -201,6 +241,15 @@ internal interface ReadLayoutHelper {
     fun getBottom(child: View): Int
     fun getMeasuredWidth(child: View): Int
     fun getMeasuredHeight(child: View): Int
+    fun getMarginLeft(child: View): Int
+    fun getMarginTop(child: View): Int
+    fun getMarginRight(child: View): Int
+    fun getMarginBottom(child: View): Int
+
+    /**
+     * True if the item bound to [child] has been removed from the adapter.
+     */
+    fun isRemoved(child: View): Boolean
 
     fun getAttachedRawView(position: Int): View
 
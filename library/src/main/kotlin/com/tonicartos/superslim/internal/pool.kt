@@ -0,0 +1,67 @@
+package com.tonicartos.superslim.internal
+
+/**
+ * A bounded stack of released objects kept for reuse. Acquiring and releasing are O(1), and objects released to a full
+ * pool are left for the garbage collector. The counters show how well a pool is sized.
+ */
+internal class ObjectPool<T : Any>(private val maxSize: Int = DEFAULT_MAX_SIZE) {
+    companion object {
+        const val DEFAULT_MAX_SIZE = 32
+    }
+
+    private var items = arrayOfNulls<Any>(Math.min(8, maxSize))
+
+    var size = 0
+        private set
+
+    /**
+     * Number of acquisitions served from the pool.
+     */
+    var hits = 0
+        private set
+
+    /**
+     * Number of acquisitions which found the pool empty.
+     */
+    var misses = 0
+        private set
+
+    /**
+     * Largest number of objects held at once.
+     */
+    var highWater = 0
+        private set
+
+    /**
+     * Take the most recently released object, or null if the pool is empty.
+     */
+    fun acquire(): T? {
+        if (size == 0) {
+            misses += 1
+            return null
+        }
+        hits += 1
+        size -= 1
+        @Suppress("UNCHECKED_CAST")
+        val item = items[size] as T
+        items[size] = null
+        return item
+    }
+
+    fun release(item: T) {
+        if (size == maxSize) return
+        if (size == items.size) items = items.copyOf(Math.min(maxSize, size * 2))
+        items[size] = item
+        size += 1
+        if (size > highWater) highWater = size
+    }
+
+    fun resetCounters() {
+        hits = 0
+        misses = 0
+        highWater = size
+    }
+
+    override fun toString() = "ObjectPool(size = $size, maxSize = $maxSize, hits = $hits, misses = $misses, " +
+            "highWater = $highWater)"
+}
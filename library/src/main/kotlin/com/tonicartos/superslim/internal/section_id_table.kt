@@ -0,0 +1,139 @@
+package com.tonicartos.superslim.internal
+
+/**
+ * A set of section ids, each given a dense index so values for the ids can be held in parallel arrays. Ids are found
+ * through an open addressed table of ints with linear probing, so lookup, add, and remove are O(1) and nothing is
+ * allocated once the arrays have grown to fit.
+ *
+ * Removing an id moves the last id into its index. Parallel arrays have to move their last value the same way, see
+ * [removeAt].
+ */
+internal class SectionIdTable(initialCapacity: Int = 8) {
+    private companion object {
+        const val EMPTY = -1
+
+        /**
+         * Spread ids over the table. Ids are slot numbers in their low bits, so neighbouring ids would otherwise fill
+         * runs of neighbouring buckets.
+         */
+        fun hash(id: Int): Int {
+            val h = id * -0x61c88647
+            return h xor (h ushr 16)
+        }
+    }
+
+    private var ids = IntArray(initialCapacity)
+    /**
+     * Index of the id hashed to each bucket, or [EMPTY]. Kept at most half full so probes stay short.
+     */
+    private var buckets = IntArray(bucketsFor(initialCapacity)) { EMPTY }
+
+    var size = 0
+        private set
+
+    fun idAt(index: Int): Int {
+        if (index < 0 || index >= size) throw IndexOutOfBoundsException("index: $index, size: $size")
+        return ids[index]
+    }
+
+    /**
+     * @return The index of [id], or -1 if it is not in the table.
+     */
+    fun indexOf(id: Int): Int {
+        val bucket = bucketOf(id)
+        return if (bucket < 0) -1 else buckets[bucket]
+    }
+
+    operator fun contains(id: Int) = bucketOf(id) >= 0
+
+    /**
+     * Add [id] if it is not in the table already.
+     *
+     * @return The index of [id].
+     */
+    fun add(id: Int): Int {
+        var bucket = bucketOf(id)
+        if (bucket >= 0) return buckets[bucket]
+        if ((size + 1) * 2 > buckets.size) {
+            grow()
+            bucket = bucketOf(id)
+        }
+        if (size == ids.size) ids = ids.copyOf(size * 2)
+        ids[size] = id
+        buckets[-bucket - 1] = size
+        size += 1
+        return size - 1
+    }
+
+    /**
+     * Remove the id at [index]. The last id takes its place, so once this returns, the value held for [size] in a
+     * parallel array belongs at [index] instead.
+     */
+    fun removeAt(index: Int) {
+        val id = idAt(index)
+        removeBucket(bucketOf(id))
+        val last = size - 1
+        if (index != last) {
+            buckets[bucketOf(ids[last])] = index
+            ids[index] = ids[last]
+        }
+        size = last
+    }
+
+    fun clear() {
+        if (size == 0) return
+        buckets.fill(EMPTY)
+        size = 0
+    }
+
+    /**
+     * @return The bucket holding [id], or, if it is not in the table, -1 - the bucket it would go in.
+     */
+    private fun bucketOf(id: Int): Int {
+        val mask = buckets.size - 1
+        var bucket = hash(id) and mask
+        while (true) {
+            val index = buckets[bucket]
+            if (index == EMPTY) return -bucket - 1
+            if (ids[index] == id) return bucket
+            bucket = (bucket + 1) and mask
+        }
+    }
+
+    /**
+     * Empty a bucket, shifting later buckets of the same probe run back so every id stays reachable from its home
+     * bucket.
+     */
+    private fun removeBucket(bucket: Int) {
+        val mask = buckets.size - 1
+        var hole = bucket
+        var next = (hole + 1) and mask
+        while (buckets[next] != EMPTY) {
+            val home = hash(ids[buckets[next]]) and mask
+            // An id can fill the hole unless its home bucket lies cyclically after the hole, up to where it is now.
+            val homeAfterHole = if (hole <= next) home in (hole + 1)..next else home > hole || home <= next
+            if (!homeAfterHole) {
+                buckets[hole] = buckets[next]
+                hole = next
+            }
+            next = (next + 1) and mask
+        }
+        buckets[hole] = EMPTY
+    }
+
+    private fun grow() {
+        buckets = IntArray(buckets.size * 2) { EMPTY }
+        val mask = buckets.size - 1
+        for (index in 0 until size) {
+            var bucket = hash(ids[index]) and mask
+            while (buckets[bucket] != EMPTY) bucket = (bucket + 1) and mask
+            buckets[bucket] = index
+        }
+    }
+
+    private fun bucketsFor(capacity: Int): Int {
+        var buckets = 2
+        while (buckets < capacity * 2) buckets = buckets shl 1
+        return buckets
+    }
+}
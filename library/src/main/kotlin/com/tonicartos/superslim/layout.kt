@@ -67,12 +67,9 @@ interface SectionLayoutManager<in T : SectionState> {
 }
 
 class LayoutHelper private constructor(private var root: RootLayoutHelper,
-                                       private var tellParentViewsChangedBy: (Int) -> Unit,
-                                       private var tellParentAboutTemporaryView: (Int) -> Unit) : BaseLayoutHelper {
-    internal constructor(root: RootLayoutHelper, x: Int, y: Int, width: Int, paddingTop: Int, paddingBottom: Int,
-                         viewsBefore: Int, layoutState: LayoutState, tellParentViewsChanged: (Int) -> Unit,
-                         tellParentAboutTemporaryView: (Int) -> Unit) :
-            this(root, tellParentViewsChanged, tellParentAboutTemporaryView) {
+                                       private var parent: LayoutHelper?) : BaseLayoutHelper {
+    internal constructor(root: RootLayoutHelper, parent: LayoutHelper?, x: Int, y: Int, width: Int, paddingTop: Int,
+                         paddingBottom: Int, viewsBefore: Int, layoutState: LayoutState) : this(root, parent) {
         offset.x = x
         offset.y = y
         this.width = width
@@ -86,11 +83,10 @@ class LayoutHelper private constructor(private var root: RootLayoutHelper,
      * Init stuff
      *************************/
 
-    internal fun reInit(root: RootLayoutHelper, x: Int, y: Int, width: Int, paddingTop: Int, paddingBottom: Int,
-                        viewsBefore: Int, layoutState: LayoutState, tellParentViewsChangedBy: (Int) -> Unit,
-                        tellParentAboutDisappearedView: (Int) -> Unit)
-            : LayoutHelper {
+    internal fun reInit(root: RootLayoutHelper, parent: LayoutHelper?, x: Int, y: Int, width: Int, paddingTop: Int,
+                        paddingBottom: Int, viewsBefore: Int, layoutState: LayoutState): LayoutHelper {
         this.root = root
+        this.parent = parent
         offset.x = x
         offset.y = y
         this.width = width
@@ -99,16 +95,13 @@ class LayoutHelper private constructor(private var root: RootLayoutHelper,
         this.paddingBottom = paddingBottom
         this.viewsBefore = viewsBefore
         this.layoutState = layoutState
-        this.tellParentViewsChangedBy = tellParentViewsChangedBy
-        this.tellParentAboutTemporaryView = tellParentAboutDisappearedView
         return this
     }
 
     private fun acquireSubsectionHelper(y: Int, left: Int, right: Int, paddingTop: Int, paddingBottom: Int,
                                         viewsBefore: Int, layoutState: LayoutState): LayoutHelper
-            = root.acquireSubsectionHelper(offset.y + y, offset.x + left, offset.x + right,
-                                           paddingTop, paddingBottom, viewsBefore, layoutState,
-                                           this::viewsChangedBy, this::temporaryViewsChangedBy)
+            = root.acquireSubsectionHelper(this, offset.y + y, offset.x + left, offset.x + right,
+                                           paddingTop, paddingBottom, viewsBefore, layoutState)
 
     internal fun release() {
         root.releaseSubsectionHelper(this)
@@ -152,13 +145,13 @@ class LayoutHelper private constructor(private var root: RootLayoutHelper,
 
     internal fun viewsChangedBy(delta: Int) {
         layoutState.numViews += delta
-        tellParentViewsChangedBy(delta)
+        parent?.viewsChangedBy(delta)
     }
 
     private fun temporaryViewsChangedBy(delta: Int) {
         layoutState.numViews += delta
         layoutState.numTemporaryViews += delta
-        tellParentAboutTemporaryView(delta)
+        parent?.temporaryViewsChangedBy(delta)
     }
 
     override val layoutWidth get() = width
@@ -296,6 +289,8 @@ class LayoutHelper private constructor(private var root: RootLayoutHelper,
         layoutState.disappearedOrRemovedHeight += ignoredHeight
     }
 
+    override fun getItemViewType(child: View) = root.getItemViewType(child)
+    override fun getPosition(child: View) = root.getPosition(child)
     override val supportsPredictiveItemAnimations get() = root.supportsPredictiveItemAnimations
     override val isPreLayout: Boolean get() = root.isPreLayout
     override val willRunPredictiveAnimations: Boolean get() = root.willRunPredictiveAnimations
@@ -317,6 +312,11 @@ class LayoutHelper private constructor(private var root: RootLayoutHelper,
 
     override fun getMeasuredWidth(child: View): Int = root.getMeasuredWidth(child)
     override fun getMeasuredHeight(child: View): Int = root.getMeasuredHeight(child)
+    override fun getMarginLeft(child: View): Int = root.getMarginLeft(child)
+    override fun getMarginTop(child: View): Int = root.getMarginTop(child)
+    override fun getMarginRight(child: View): Int = root.getMarginRight(child)
+    override fun getMarginBottom(child: View): Int = root.getMarginBottom(child)
+    override fun isRemoved(child: View): Boolean = root.isRemoved(child)
     override var stickyStartInset get() = root.stickyStartInset
         set(value) {
             root.stickyStartInset = value
@@ -19,8 +19,11 @@ class FlexboxSectionConfig(gutterStart: Int = SectionConfig.DEFAULT_GUTTER,
     override fun onMakeSection(oldState: SectionState?): SectionState = FlexboxSectionState(this, oldState)
 
     override fun onCopy(): FlexboxSectionConfig {
-        return FlexboxSectionConfig(gutterStart, gutterEnd, headerStyle, footerStyle)
+        return FlexboxSectionConfig(gutterStart, gutterEnd, headerStyle, footerStyle, paddingLeft, paddingTop,
+                                    paddingRight, paddingBottom)
     }
+
+    override fun onIsEquivalentTo(other: SectionConfig) = true
 }
 
 private class FlexboxSectionState(configuration: FlexboxSectionConfig, oldState: SectionState? = null)
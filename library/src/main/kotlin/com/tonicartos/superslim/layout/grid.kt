@@ -16,19 +16,27 @@ class GridSectionConfig(gutterStart: Int = SectionConfig.DEFAULT_GUTTER, gutterE
     override fun onMakeSection(oldState: SectionState?): SectionState = GridSectionState(this, oldState)
 
     override fun onCopy(): GridSectionConfig {
-        val copy = GridSectionConfig(gutterStart, gutterEnd, headerStyle, footerStyle)
+        val copy = GridSectionConfig(gutterStart, gutterEnd, headerStyle, footerStyle, paddingLeft, paddingTop,
+                                     paddingRight, paddingBottom)
         copy.numColumns = numColumns
         copy.columnWidth = columnWidth
         return copy
     }
+
+    override fun onIsEquivalentTo(other: SectionConfig)
+            = other is GridSectionConfig && numColumns == other.numColumns && columnWidth == other.columnWidth
 }
 
 private class GridSectionState(var configuration: GridSectionConfig, oldState: SectionState? = null) :
         SectionState(configuration, oldState), ColumnsSectionStateMixin by ColumnsState(configuration) {
+    override val itemsPerLine get() = numColumns
+
     override fun isAtTop(layoutState: LayoutState) = GridSlm.isAtTop(this, layoutState)
 
     override fun doLayout(helper: LayoutHelper, layoutState: LayoutState) {
+        val columns = numColumns
         resolveColumns(helper)
+        if (numColumns != columns) itemsPerLineChanged()
 
         GridSlm.onLayout(helper, this, layoutState)
     }
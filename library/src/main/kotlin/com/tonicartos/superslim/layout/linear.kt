@@ -12,13 +12,18 @@ import com.tonicartos.superslim.use
 class LinearSectionConfig(gutterStart: Int = SectionConfig.DEFAULT_GUTTER,
                           gutterEnd: Int = SectionConfig.DEFAULT_GUTTER,
                           @HeaderStyle headerStyle: Int = SectionConfig.DEFAULT_HEADER_STYLE,
-                          @FooterStyle footerStyle: Int = SectionConfig.DEFAULT_FOOTER_STYLE) :
-        SectionConfig(gutterStart, gutterEnd, headerStyle, footerStyle, 0, 0, 0, 0) {
+                          @FooterStyle footerStyle: Int = SectionConfig.DEFAULT_FOOTER_STYLE,
+                          paddingStart: Int = 0, paddingTop: Int = 0, paddingEnd: Int = 0, paddingBottom: Int = 0) :
+        SectionConfig(gutterStart, gutterEnd, headerStyle, footerStyle, paddingStart, paddingTop, paddingEnd,
+                      paddingBottom) {
     override fun onMakeSection(oldState: SectionState?): SectionState = LinearSectionState(this, oldState)
 
     override fun onCopy(): LinearSectionConfig {
-        return LinearSectionConfig(gutterStart, gutterEnd, headerStyle, footerStyle)
+        return LinearSectionConfig(gutterStart, gutterEnd, headerStyle, footerStyle, paddingLeft, paddingTop,
+                                   paddingRight, paddingBottom)
     }
+
+    override fun onIsEquivalentTo(other: SectionConfig) = true
 }
 
 internal class LinearSectionState(configuration: LinearSectionConfig, oldState: SectionState? = null)
@@ -18,21 +18,29 @@ class StaggeredGridSectionConfig(gutterStart: Int = SectionConfig.DEFAULT_GUTTER
     override fun onMakeSection(oldState: SectionState?): SectionState = StaggeredGridSection(this, oldState)
 
     override fun onCopy(): StaggeredGridSectionConfig {
-        val copy = StaggeredGridSectionConfig(gutterStart, gutterEnd, headerStyle, footerStyle)
+        val copy = StaggeredGridSectionConfig(gutterStart, gutterEnd, headerStyle, footerStyle, paddingLeft, paddingTop,
+                                              paddingRight, paddingBottom)
         copy.numColumns = numColumns
         copy.columnWidth = columnWidth
         return copy
     }
+
+    override fun onIsEquivalentTo(other: SectionConfig)
+            = other is StaggeredGridSectionConfig && numColumns == other.numColumns && columnWidth == other.columnWidth
 }
 
 private class StaggeredGridSection(var configuration: StaggeredGridSectionConfig, oldState: SectionState? = null) :
         SectionState(configuration, oldState), ColumnsSectionStateMixin by ColumnsState(configuration) {
+    override val itemsPerLine get() = numColumns
+
     override fun isAtTop(layoutState: LayoutState): Boolean {
         return StaggeredGridSlm.isAtTop(this, layoutState)
     }
 
     override fun doLayout(helper: LayoutHelper, layoutState: LayoutState) {
+        val columns = numColumns
         resolveColumns(helper)
+        if (numColumns != columns) itemsPerLineChanged()
 
         StaggeredGridSlm.onLayout(helper, this, layoutState)
     }
@@ -1,6 +1,7 @@
 package com.tonicartos.superslim
 
 import android.content.Context
+import android.graphics.PointF
 import android.os.Parcelable
 import android.support.annotation.IntDef
 import android.support.v4.view.ViewCompat
@@ -17,10 +18,18 @@ internal interface AdapterContract<ID> {
     fun populateRoot(out: SectionData)
 
     fun getSections(): Map<ID, SectionConfig>
+    /**
+     * Ids currently assigned to the sections by the layout manager, or -1 for sections without one.
+     */
+    fun getSectionIds(): Map<ID, Int>
     fun setSectionIds(idMap: Map<*, Int>)
     fun populateSection(data: Pair<*, SectionData>)
 
     fun getData(position: Int): Data
+    /**
+     * Fill [out] with the data for [count] adapter positions from [start], as runs.
+     */
+    fun getDataRuns(start: Int, count: Int, out: DataRuns)
 
     fun onLayoutManagerAttached(layoutManager: SuperSlimLayoutManager)
     fun onLayoutManagerDetached(layoutManager: SuperSlimLayoutManager)
@@ -43,6 +52,43 @@ internal interface AdapterContract<ID> {
         fun pack(section: Int, position: Int, type: Int): Data
     }
 
+    /**
+     * Data for a range of adapter positions, run-length encoded. Each run is a header, a footer, or plain items with
+     * consecutive child positions in one section.
+     */
+    class DataRuns {
+        var size = 0
+            private set
+        private var sections = IntArray(8)
+        private var positions = IntArray(8)
+        private var counts = IntArray(8)
+        private var types = IntArray(8)
+
+        fun section(run: Int) = sections[run]
+        fun position(run: Int) = positions[run]
+        fun count(run: Int) = counts[run]
+        fun isHeader(run: Int) = types[run] == Data.HEADER
+        fun isFooter(run: Int) = types[run] == Data.FOOTER
+
+        fun add(section: Int, position: Int, count: Int, type: Int) {
+            if (size == sections.size) {
+                sections = sections.copyOf(size * 2)
+                positions = positions.copyOf(size * 2)
+                counts = counts.copyOf(size * 2)
+                types = types.copyOf(size * 2)
+            }
+            sections[size] = section
+            positions[size] = position
+            counts[size] = count
+            types[size] = type
+            size += 1
+        }
+
+        fun clear() {
+            size = 0
+        }
+    }
+
     private class DataImpl(override var section: Int, override var position: Int, var type: Int) : Data {
         override val isHeader get() = type == Data.HEADER
         override val isFooter get() = type == Data.FOOTER
@@ -61,10 +107,19 @@ class SectionData {
     var hasHeader = false
     var childCount = 0
     var subsectionsById = emptyList<Int>()
+    /**
+     * Child position of each subsection, in the same order as [subsectionsById].
+     */
+    var subsectionPositions = emptyList<Int>()
+    /**
+     * Total items in each subsection, in the same order as [subsectionsById].
+     */
+    var subsectionItemCounts = emptyList<Int>()
     internal var subsections = emptyList<SectionState>()
 }
 
 class SuperSlimLayoutManager() : RecyclerView.LayoutManager(), ManagerHelper, ConfigHelper,
+                                 RecyclerView.SmoothScroller.ScrollVectorProvider,
                                  ItemManagement by ItemManager() {
     @JvmOverloads @Suppress("unused")
     constructor(@Suppress("unused_parameter") context: Context, @Orientation orientation: Int = VERTICAL,
@@ -91,6 +146,11 @@ class SuperSlimLayoutManager() : RecyclerView.LayoutManager(), ManagerHelper, Co
         private const val ENABLE_NOTIFICATION_LOGGING = false
         private const val ENABLE_ITEM_CHANGE_LOGGING = false
         private const val ENABLE_LAYOUT_LOGGING = false
+
+        /**
+         * Smooth scrolls to targets further than this many layout areas away jump most of the way there first.
+         */
+        private const val SMOOTH_SCROLL_JUMP_THRESHOLD = 3
     }
 
     override fun generateDefaultLayoutParams(): RecyclerView.LayoutParams? {
@@ -102,6 +162,20 @@ class SuperSlimLayoutManager() : RecyclerView.LayoutManager(), ManagerHelper, Co
      ****************************************************/
     private val recyclerHelper = RecyclerWrapper()
     private val stateHelper = StateWrapper()
+    private var rootHelper: RootLayoutHelper? = null
+
+    /**
+     * The root helper is reused across layouts and scrolls, and only rebuilt when the configuration chain changes.
+     */
+    private fun rootHelper(recycler: RecyclerView.Recycler, state: RecyclerView.State): RootLayoutHelper {
+        recyclerHelper.wrap(recycler)
+        stateHelper.wrap(state)
+        val config = configHelper
+        val helper = rootHelper?.takeIf { it.config === config }
+                ?: RootLayoutHelper(this, config, recyclerHelper, stateHelper).also { rootHelper = it }
+        helper.extentEstimator = extentEstimator
+        return helper.reset()
+    }
 
     override fun addTemporaryView(child: View) {
         addView(child)
@@ -140,7 +214,7 @@ class SuperSlimLayoutManager() : RecyclerView.LayoutManager(), ManagerHelper, Co
             Log.d("Sslm-graph", "$graph")
         }
         detachAndScrapAttachedViews(recycler)
-        graph.layout(RootLayoutHelper(this, configHelper, recyclerHelper.wrap(recycler), stateHelper.wrap(state)))
+        graph.layout(rootHelper(recycler, state))
         graph.postLayout()
     }
 
@@ -165,63 +239,134 @@ class SuperSlimLayoutManager() : RecyclerView.LayoutManager(), ManagerHelper, Co
     override fun scrollHorizontallyBy(dx: Int, recycler: RecyclerView.Recycler, state: RecyclerView.State)
             = configHelper.scrollBy(dx, recycler, state)
 
-    override fun scrollBy(d: Int, recycler: RecyclerView.Recycler, state: RecyclerView.State)
-            = graph?.scrollBy(d, RootLayoutHelper(this, configHelper, recyclerHelper.wrap(recycler),
-                                                  stateHelper.wrap(state))) ?: 0
+    override fun scrollBy(d: Int, recycler: RecyclerView.Recycler, state: RecyclerView.State): Int {
+        val graph = graph ?: return 0
+        return graph.scrollBy(d, rootHelper(recycler, state))
+    }
 
     override fun scrollToPosition(position: Int) {
         graph?.apply {
-            requestedAnchor = Anchor(position)
+            requestPosition(position, 0)
             requestLayout()
         }
     }
 
-// TODO: Scroll to position with offset.
-//    fun scrollToPositionWithOffset(position: Int, offset: Int) {
-//        graph?.apply {
-//            requestedPosition = position
-//            requestedOffset = offset // Offsets layout and forces fill top.
-//            requestLayout()
-//        }
-//    }
-
-// TODO: Custom find views.
-//    override fun findViewByPosition(position: Int) = graph?.findViewByPosition(position, this)
+    /**
+     * Scroll to [position], placing it [offset] from the start of the layout area. The item is laid out at the offset
+     * directly, without a second fill pass, whenever the extents of the items in front of it are known.
+     */
+    fun scrollToPositionWithOffset(position: Int, offset: Int) {
+        graph?.apply {
+            requestPosition(position, offset)
+            requestLayout()
+        }
+    }
 
-    /****************************************************
-     * Scroll indicator computation
-     ****************************************************/
+    override fun smoothScrollToPosition(recyclerView: RecyclerView, state: RecyclerView.State?, position: Int) {
+        startSmoothScroll(SectionSmoothScroller(recyclerView.context, position, false, this))
+    }
 
-    override fun computeVerticalScrollExtent(state: RecyclerView.State?): Int {
-        // TODO: compute scroll
-        return super.computeVerticalScrollExtent(state)
+    /**
+     * Smooth scroll to the start of the innermost section holding [position], and settle with its header at the start
+     * of the layout area.
+     */
+    fun smoothScrollToSectionHeader(recyclerView: RecyclerView, position: Int) {
+        val target = graph?.sectionStartOf(position) ?: position
+        startSmoothScroll(SectionSmoothScroller(recyclerView.context, target, true, this))
     }
 
-    override fun computeVerticalScrollRange(state: RecyclerView.State?): Int {
-        // TODO: compute scroll
-        return super.computeVerticalScrollRange(state)
+    override fun computeScrollVectorForPosition(targetPosition: Int): PointF? {
+        val first = findFirstVisibleItemPosition()
+        if (first == RecyclerView.NO_POSITION) return null
+        var direction = if (targetPosition < first) -1f else 1f
+        if (layoutFromEnd) direction = -direction
+        return if (orientation == VERTICAL) PointF(0f, direction) else PointF(direction, 0f)
     }
 
-    override fun computeVerticalScrollOffset(state: RecyclerView.State?): Int {
-        // TODO: compute scroll
-        return super.computeVerticalScrollOffset(state)
+    internal fun jumpPositionFor(target: Int): Int {
+        val graph = graph ?: return RecyclerView.NO_POSITION
+        val space = configHelper.layoutLimit
+        return graph.jumpPositionFor(target, extentEstimator, space * SMOOTH_SCROLL_JUMP_THRESHOLD)
     }
 
-    override fun computeHorizontalScrollExtent(state: RecyclerView.State?): Int {
-        // TODO: compute scroll
-        return super.computeHorizontalScrollExtent(state)
+    /**
+     * Adapter position of the first item laid out, which may only be partly visible.
+     *
+     * @return [RecyclerView.NO_POSITION] if nothing is laid out.
+     */
+    fun findFirstVisibleItemPosition() = graph?.root?.firstAttachedPosition ?: RecyclerView.NO_POSITION
+
+    /**
+     * Adapter position of the last item laid out, which may only be partly visible.
+     *
+     * @return [RecyclerView.NO_POSITION] if nothing is laid out.
+     */
+    fun findLastVisibleItemPosition() = graph?.root?.lastAttachedPosition ?: RecyclerView.NO_POSITION
+
+    /**
+     * Views are usually attached in adapter order, so the view is looked for at its offset from the first item laid
+     * out. Positions outside of the laid out range, and views attached out of order, fall back to a search of all
+     * the children.
+     */
+    override fun findViewByPosition(position: Int): View? {
+        val first = findFirstVisibleItemPosition()
+        if (first == RecyclerView.NO_POSITION) return super.findViewByPosition(position)
+        val index = position - first
+        if (index in 0..(childCount - 1)) {
+            val child = getChildAt(index)
+            if (child != null && getPosition(child) == position && !isRemoved(child)) return child
+        }
+        return super.findViewByPosition(position)
     }
 
-    override fun computeHorizontalScrollRange(state: RecyclerView.State?): Int {
-        // TODO: compute scroll
-        return super.computeHorizontalScrollRange(state)
+    /****************************************************
+     * Scroll indicator computation
+     ****************************************************/
+
+    /**
+     * Estimates the extent of content which has not been laid out, in sections where no items have been measured yet.
+     * Scroll bars are sized from the estimate, so they work however many items there are.
+     */
+    var extentEstimator: ExtentEstimator = AverageExtentEstimator()
+
+    override fun computeVerticalScrollExtent(state: RecyclerView.State?)
+            = if (orientation == VERTICAL) computeScrollExtent() else 0
+
+    override fun computeVerticalScrollRange(state: RecyclerView.State?)
+            = if (orientation == VERTICAL) computeScrollRange() else 0
+
+    override fun computeVerticalScrollOffset(state: RecyclerView.State?)
+            = if (orientation == VERTICAL) computeScrollOffset() else 0
+
+    override fun computeHorizontalScrollExtent(state: RecyclerView.State?)
+            = if (orientation == HORIZONTAL) computeScrollExtent() else 0
+
+    override fun computeHorizontalScrollRange(state: RecyclerView.State?)
+            = if (orientation == HORIZONTAL) computeScrollRange() else 0
+
+    override fun computeHorizontalScrollOffset(state: RecyclerView.State?)
+            = if (orientation == HORIZONTAL) computeScrollOffset() else 0
+
+    private fun computeScrollRange() = graph?.estimateContentExtent(extentEstimator) ?: 0
+
+    private fun computeScrollExtent(): Int {
+        val config = configHelper
+        val space = config.layoutLimit - config.basePaddingTop - config.basePaddingBottom
+        return Math.max(0, Math.min(space, computeScrollRange()))
     }
 
-    override fun computeHorizontalScrollOffset(state: RecyclerView.State?): Int {
-        // TODO: compute scroll
-        return super.computeHorizontalScrollOffset(state)
+    private fun computeScrollOffset(): Int {
+        val graph = graph ?: return 0
+        val scrollable = computeScrollRange() - computeScrollExtent()
+        val offset = Math.max(0, Math.min(scrollable, graph.estimateScrollOffset(extentEstimator)))
+        return if (layoutFromEnd) scrollable - offset else offset
     }
 
+    /**
+     * Content is laid out from the other end when only one of these is set.
+     */
+    private val layoutFromEnd get() = reverseLayout != stackFromEnd
+
     /*************************
      * Graph
      *************************/
@@ -259,7 +404,10 @@ class SuperSlimLayoutManager() : RecyclerView.LayoutManager(), ManagerHelper, Co
 //    }
 
     override fun onItemsChanged(view: RecyclerView) {
-        graph = GraphManager(adapterContract ?: return)
+        val adapter = adapterContract ?: return
+        // The recycler view drops its pending updates, so the graph is reloaded without them.
+        discardChanges()
+        graph?.reconcile(adapter) ?: let { graph = GraphManager(adapter) }
     }
 
     private fun contractAdapter(adapter: RecyclerView.Adapter<*>) {
@@ -306,6 +454,16 @@ class SuperSlimLayoutManager() : RecyclerView.LayoutManager(), ManagerHelper, Co
             requestLayout()
         }
 
+    /**
+     * Keep layout state only for sections which are laid out. Saves memory when there are very many sections, at the
+     * cost of rebuilding the state of a section each time it comes back into view.
+     */
+    var compactLayoutState = false
+        set(value) {
+            field = value
+            graph?.compactLayoutState = value
+        }
+
     //TODO: Test configuration setup.
     private var configChanged = true
     private var configHelper: ConfigHelper = this
@@ -341,6 +499,11 @@ class SuperSlimLayoutManager() : RecyclerView.LayoutManager(), ManagerHelper, Co
     override fun getTop(child: View): Int = getDecoratedTop(child)
     override fun getRight(child: View): Int = getDecoratedRight(child)
     override fun getBottom(child: View): Int = getDecoratedBottom(child)
+    override fun getMarginLeft(child: View): Int = child.rvLayoutParams.leftMargin
+    override fun getMarginTop(child: View): Int = child.rvLayoutParams.topMargin
+    override fun getMarginRight(child: View): Int = child.rvLayoutParams.rightMargin
+    override fun getMarginBottom(child: View): Int = child.rvLayoutParams.bottomMargin
+    override fun isRemoved(child: View): Boolean = child.rvLayoutParams.isItemRemoved
 
     override fun getAttachedRawView(position: Int): View {
         require(position in 0..(childCount - 1))
@@ -375,6 +538,10 @@ class SuperSlimLayoutManager() : RecyclerView.LayoutManager(), ManagerHelper, Co
      ****************************************************/
 
     private var graph: GraphManager? = null
+        set(value) {
+            value?.compactLayoutState = compactLayoutState
+            field = value
+        }
 
     /*************************
      * Section changes from adapter
@@ -390,10 +557,28 @@ class SuperSlimLayoutManager() : RecyclerView.LayoutManager(), ManagerHelper, Co
     fun notifySectionAdded(parent: Int, position: Int, config: SectionConfig): Int {
         if (ENABLE_NOTIFICATION_LOGGING) Log.d("SSlm",
                                                "sectionAdded(parent: $parent, position: $position, config: $config)")
-        // Always copy the config as soon as it enters this domain.
-        return graph!!.sectionAdded(parent, position, config.copy())
+        // The graph snapshots the config as soon as it enters this domain.
+        return graph!!.sectionAdded(parent, position, config)
+    }
+
+    /**
+     * Start a batch of section additions. Until [commitSectionBatch] is called, [notifySectionAdded] still returns the
+     * new section's id straight away, so it can be used as the parent of later additions, but the section is not
+     * inserted into the graph. Removals and updates are queued for the next layout as usual. A batch must be committed
+     * before the next layout pass.
+     */
+    fun beginSectionBatch() {
+        graph!!.beginSectionBatch()
     }
 
+    /**
+     * Insert all the sections added since [beginSectionBatch] in one ordered pass, recomputing positions once for each
+     * parent touched.
+     *
+     * @return Ids of the added sections, in the order they were notified.
+     */
+    fun commitSectionBatch(): IntArray = graph!!.commitSectionBatch()
+
     /**
      * Notify that a section is to be removed. The removal happens after all layout passes, whereupon the section id
      * becomes invalid.
@@ -403,19 +588,34 @@ class SuperSlimLayoutManager() : RecyclerView.LayoutManager(), ManagerHelper, Co
         graph!!.queueSectionRemoved(section, parent)
     }
 
-//    fun notifySectionMoved(section: Int, fromParent: Int, fromPosition: Int, toParent: Int, toPosition: Int) {
-//        graph.queueSectionMoved(section, fromParent, fromPosition, toParent, toPosition)
-//    }
+    /**
+     * Notify that a section has been moved. The section keeps its id and state. Notify the adapter that its items were
+     * removed and inserted again after this call; those notifications are taken as part of the move, which is applied
+     * in order with other item changes, so both layout passes see the section in its new place.
+     *
+     * @param[toPosition] Position in the new parent, once the section has been taken out of the old parent.
+     * @param[positionInAdapter] Adapter position of the section before the move.
+     * @param[itemCount] Number of items in the section.
+     */
+    @JvmOverloads
+    fun notifySectionMoved(section: Int, fromParent: Int, toParent: Int, toPosition: Int,
+                           positionInAdapter: Int = RecyclerView.NO_POSITION, itemCount: Int = 0) {
+        if (ENABLE_NOTIFICATION_LOGGING) Log.d("SSlm", "sectionMoved(section: $section, fromParent: $fromParent, " +
+                "toParent: $toParent, toPosition: $toPosition, positionInAdapter: $positionInAdapter, " +
+                "itemCount: $itemCount)")
+        moveSection(section, fromParent, toParent, toPosition, positionInAdapter, itemCount)
+    }
 
     /**
      * Notify that a section has been changed. This indicates a configuration change for the section. The effect is
      * applied in the post-layout, which means items should animate between the two states, pre-update, and port-update.
-     * It may be necessary to notify changes for at least one item in the section.
+     * It may be necessary to notify changes for at least one item in the section. A configuration equivalent to the
+     * current one is ignored, and the section keeps its state.
      */
     fun notifySectionUpdated(section: Int, config: SectionConfig) {
         if (ENABLE_NOTIFICATION_LOGGING) Log.d("SSlm", "sectionAdded(section: $section, config: $config)")
-        // Always copy the config as soon as it enters this domain.
-        graph!!.queueSectionUpdated(section, config.copy())
+        // The graph snapshots the config as soon as it enters this domain, unless nothing has changed.
+        graph!!.queueSectionUpdated(section, config)
     }
 
     /*************************
@@ -437,6 +637,11 @@ class SuperSlimLayoutManager() : RecyclerView.LayoutManager(), ManagerHelper, Co
         moveItems(from, to, itemCount)
     }
 
+    override fun onItemsUpdated(recyclerView: RecyclerView?, positionStart: Int, itemCount: Int) {
+        if (ENABLE_ITEM_CHANGE_LOGGING) Log.d("Sslm", "itemsUpdated(position: $positionStart, itemCount: $itemCount)")
+        updateItems(positionStart, itemCount)
+    }
+
     /*************************
      * State management
      *************************/
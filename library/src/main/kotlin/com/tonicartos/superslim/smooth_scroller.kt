@@ -0,0 +1,37 @@
+package com.tonicartos.superslim
+
+import android.content.Context
+import android.support.v7.widget.LinearSmoothScroller
+import android.support.v7.widget.RecyclerView
+
+/**
+ * Smooth scroller for [SuperSlimLayoutManager]. A target far from the layout area, by the estimated extent of the items
+ * in between, is jumped towards first, so only the last stretch is scrolled through instead of laying out every item on
+ * the way. The jump is only made once, so a poor estimate can't keep the scroller from settling.
+ */
+internal class SectionSmoothScroller(context: Context, target: Int, private val snapToStart: Boolean,
+                                     private val manager: SuperSlimLayoutManager) : LinearSmoothScroller(context) {
+    private var jumped = false
+
+    init {
+        targetPosition = target
+    }
+
+    override fun getVerticalSnapPreference()
+            = if (snapToStart) LinearSmoothScroller.SNAP_TO_START else super.getVerticalSnapPreference()
+
+    override fun getHorizontalSnapPreference()
+            = if (snapToStart) LinearSmoothScroller.SNAP_TO_START else super.getHorizontalSnapPreference()
+
+    override fun updateActionForInterimTarget(action: RecyclerView.SmoothScroller.Action) {
+        if (!jumped) {
+            jumped = true
+            val jumpTo = manager.jumpPositionFor(targetPosition)
+            if (jumpTo != RecyclerView.NO_POSITION) {
+                action.jumpTo(jumpTo)
+                return
+            }
+        }
+        super.updateActionForInterimTarget(action)
+    }
+}
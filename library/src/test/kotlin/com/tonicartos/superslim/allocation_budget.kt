@@ -0,0 +1,110 @@
+package com.tonicartos.superslim
+
+import com.tonicartos.superslim.internal.GraphManager
+import com.tonicartos.superslim.layout.LinearSectionConfig
+import org.hamcrest.MatcherAssert.assertThat
+import org.hamcrest.Matchers.equalTo
+import org.hamcrest.Matchers.lessThanOrEqualTo
+import org.junit.Test
+
+/**
+ * Allocation budgets for layout and scroll. Each scenario is warmed up first so pools and lazily grown collections are
+ * settled, then the bytes allocated per call must stay within the budget for that scenario.
+ *
+ * Allocation counts include the odd object made by the runtime itself, so each budget is checked with a small
+ * tolerance. The tolerance is below the size of the smallest object, so an allocation made on every call still fails.
+ */
+class AllocationBudgetTests {
+    companion object {
+        private const val CALLS = 2000
+        private const val SCROLL_STEP = 37
+        private const val FRAMES_PER_DIRECTION = 60
+
+        private const val LAYOUT_BUDGET = 0L
+        private const val SCROLL_BUDGET = 0L
+        private const val REMOVAL_BUDGET_PER_SECTION = 0L
+
+        /**
+         * Bytes per call allowed over a budget for allocations outside the code under test.
+         */
+        private const val TOLERANCE = 8L
+    }
+
+    private class Scenario(adapter: FakeAdapter) : FakeLayout(adapter) {
+        private var frame = 0
+
+        /**
+         * Scroll in steps, turning around every so often so the scroll keeps going through the middle of the content.
+         */
+        fun scroll(): Int {
+            val d = if ((frame / FRAMES_PER_DIRECTION) % 2 == 0) SCROLL_STEP else -SCROLL_STEP
+            frame += 1
+            return scrollBy(d)
+        }
+    }
+
+    private inline fun bytesPerCall(call: () -> Unit): Long {
+        repeat(CALLS) { call() }
+        return allocatedBytes { repeat(CALLS) { call() } } / CALLS
+    }
+
+    private fun linear() = Scenario(FakeAdapter(100, 10))
+    private fun linearWithHeaders() = Scenario(FakeAdapter(100, 10, hasHeaders = true) {
+        LinearSectionConfig(headerStyle = SectionConfig.HEADER_INLINE)
+    })
+
+    @Test
+    fun scenario_scrollsThroughContent() {
+        val scenario = linear()
+        scenario.layout()
+        var scrolled = 0
+        repeat(FRAMES_PER_DIRECTION) { scrolled += scenario.scroll() }
+
+        assertThat("Scenario scrolls by the full distance.", scrolled, equalTo(SCROLL_STEP * FRAMES_PER_DIRECTION))
+        assertThat("Scenario keeps the viewport filled.", scenario.host.children.size, equalTo(11))
+    }
+
+    @Test
+    fun linearLayout_withinBudget() {
+        val scenario = linear()
+        assertThat("Bytes per layout.", bytesPerCall { scenario.layout() },
+                   lessThanOrEqualTo(LAYOUT_BUDGET + TOLERANCE))
+    }
+
+    @Test
+    fun linearScroll_withinBudget() {
+        val scenario = linear()
+        scenario.layout()
+        assertThat("Bytes per scroll frame.", bytesPerCall { scenario.scroll() },
+                   lessThanOrEqualTo(SCROLL_BUDGET + TOLERANCE))
+    }
+
+    @Test
+    fun headerLayout_withinBudget() {
+        val scenario = linearWithHeaders()
+        assertThat("Bytes per layout.", bytesPerCall { scenario.layout() },
+                   lessThanOrEqualTo(LAYOUT_BUDGET + TOLERANCE))
+    }
+
+    @Test
+    fun headerScroll_withinBudget() {
+        val scenario = linearWithHeaders()
+        scenario.layout()
+        assertThat("Bytes per scroll frame.", bytesPerCall { scenario.scroll() },
+                   lessThanOrEqualTo(SCROLL_BUDGET + TOLERANCE))
+    }
+
+    @Test
+    fun bulkRemoval_withinBudget() {
+        GraphManager(FakeAdapter(10, 10)).root.removeItems(0, 100)
+        val graph = GraphManager(FakeAdapter(1000, 50))
+        // The first change settles the position indexes.
+        graph.root.removeItems(0, 1)
+
+        val bytes = allocatedBytes { graph.root.removeItems(0, 49999) }
+
+        assertThat("All items removed.", graph.root.totalItems, equalTo(0))
+        assertThat("Bytes per section removed from.", bytes / 1000,
+                   lessThanOrEqualTo(REMOVAL_BUDGET_PER_SECTION + TOLERANCE))
+    }
+}
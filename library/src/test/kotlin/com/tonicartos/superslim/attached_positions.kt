@@ -0,0 +1,56 @@
+package com.tonicartos.superslim
+
+import android.support.v7.widget.RecyclerView.NO_POSITION
+import com.tonicartos.superslim.layout.LinearSectionConfig
+import org.hamcrest.MatcherAssert.assertThat
+import org.hamcrest.Matchers.equalTo
+import org.junit.Before
+import org.junit.Test
+
+class AttachedPositionTests {
+    private lateinit var layout: FakeLayout
+
+    @Before
+    fun setup() {
+        layout = FakeLayout(FakeAdapter(100, 10, hasHeaders = true) {
+            LinearSectionConfig(headerStyle = SectionConfig.HEADER_INLINE)
+        })
+    }
+
+    private val first get() = layout.graph.root.firstAttachedPosition
+    private val last get() = layout.graph.root.lastAttachedPosition
+
+    @Test
+    fun nothingLaidOut_hasNoPositions() {
+        assertThat("No first position.", first, equalTo(NO_POSITION))
+        assertThat("No last position.", last, equalTo(NO_POSITION))
+    }
+
+    @Test
+    fun layout_coversViewport() {
+        layout.layout()
+
+        assertThat("First position is the first header.", first, equalTo(0))
+        assertThat("Last position.", last, equalTo(9))
+    }
+
+    @Test
+    fun scroll_movesRange() {
+        layout.layout()
+        layout.scrollBy(250)
+
+        assertThat("First position.", first, equalTo(2))
+        assertThat("Last position is the next header.", last, equalTo(12))
+    }
+
+    @Test
+    fun positions_matchAttachedViews() {
+        layout.layout()
+        repeat(20) {
+            layout.scrollBy(173)
+            val positions = layout.host.children.map { view -> layout.host.getPosition(view) }
+            assertThat("First position.", first, equalTo(positions.min()))
+            assertThat("Last position.", last, equalTo(positions.max()))
+        }
+    }
+}
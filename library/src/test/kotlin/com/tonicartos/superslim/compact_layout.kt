@@ -0,0 +1,46 @@
+package com.tonicartos.superslim
+
+import org.hamcrest.MatcherAssert.assertThat
+import org.hamcrest.Matchers.equalTo
+import org.junit.Test
+
+class CompactLayoutStateTests {
+    private fun FakeLayout.sectionsWithLayoutState() = graph.root.subsections.count { it.hasLayoutState }
+
+    @Test
+    fun layout_releasesStateOfSectionsWithoutViews() {
+        val layout = FakeLayout(FakeAdapter(100, 10), compact = true)
+        layout.layout()
+        layout.scrollBy(1500)
+        layout.layout()
+
+        // A 1000px viewport of 100px items, scrolled half way into the second section of ten items.
+        assertThat("Only laid out sections hold layout state.", layout.sectionsWithLayoutState(), equalTo(2))
+    }
+
+    @Test
+    fun fullMode_keepsStateOfSectionsScrolledPast() {
+        val layout = FakeLayout(FakeAdapter(100, 10))
+        layout.layout()
+        layout.scrollBy(1500)
+        layout.layout()
+
+        assertThat("Every section reached holds layout state.", layout.sectionsWithLayoutState(), equalTo(3))
+    }
+
+    @Test
+    fun compactLayout_matchesFullLayout() {
+        val full = FakeLayout(FakeAdapter(100, 10))
+        val compact = FakeLayout(FakeAdapter(100, 10), compact = true)
+        val steps = intArrayOf(450, 1200, 3000, -700, -2500, 5000, -6000)
+
+        full.layout()
+        compact.layout()
+        for (d in steps) {
+            assertThat("Same distance scrolled by $d.", compact.scrollBy(d), equalTo(full.scrollBy(d)))
+            full.layout()
+            compact.layout()
+            assertThat("Same views after scrolling by $d.", compact.childTops, equalTo(full.childTops))
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package com.tonicartos.superslim
+
+import com.tonicartos.superslim.internal.ExtentCache
+import com.tonicartos.superslim.internal.ExtentCache.Companion.NO_EXTENT
+import org.hamcrest.MatcherAssert.assertThat
+import org.hamcrest.Matchers.equalTo
+import org.junit.Before
+import org.junit.Test
+
+class ExtentCacheTests {
+    private lateinit var cache: ExtentCache
+
+    @Before
+    fun setup() {
+        cache = ExtentCache(16)
+        for (position in 0 until 10) cache.put(position, 0, 100 + position)
+    }
+
+    @Test
+    fun get_matchesPositionAndViewType() {
+        assertThat("Cached extent.", cache[3, 0], equalTo(103))
+        assertThat("Other view type misses.", cache[3, 1], equalTo(NO_EXTENT))
+        assertThat("Uncached position misses.", cache[12, 0], equalTo(NO_EXTENT))
+    }
+
+    @Test
+    fun put_reportsChanges() {
+        assertThat("Same extent is not a change.", cache.put(3, 0, 103), equalTo(false))
+        assertThat("New extent is a change.", cache.put(3, 0, 50), equalTo(true))
+        assertThat("New extent is cached.", cache[3, 0], equalTo(50))
+    }
+
+    @Test
+    fun put_displacesPositionInSameSlot() {
+        cache.put(19, 0, 7)
+
+        assertThat("Displaced position misses.", cache[3, 0], equalTo(NO_EXTENT))
+        assertThat("New position is cached.", cache[19, 0], equalTo(7))
+    }
+
+    @Test
+    fun invalidateFrom_dropsLaterPositions() {
+        cache.invalidateFrom(5)
+
+        assertThat("Earlier position kept.", cache[4, 0], equalTo(104))
+        assertThat("Later position dropped.", cache[5, 0], equalTo(NO_EXTENT))
+        assertThat("Last position dropped.", cache[9, 0], equalTo(NO_EXTENT))
+    }
+
+    @Test
+    fun invalidate_dropsRange() {
+        cache.invalidate(2, 3)
+
+        assertThat("Before range kept.", cache[1, 0], equalTo(101))
+        assertThat("Range dropped.", (2 until 5).map { cache[it, 0] }, equalTo(List(3) { NO_EXTENT }))
+        assertThat("After range kept.", cache[5, 0], equalTo(105))
+    }
+}
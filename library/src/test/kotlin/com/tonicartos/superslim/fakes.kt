@@ -0,0 +1,248 @@
+package com.tonicartos.superslim
+
+import android.support.v7.widget.RecyclerView
+import android.view.View
+import com.nhaarman.mockito_kotlin.mock
+import com.tonicartos.superslim.internal.*
+import com.tonicartos.superslim.layout.LinearSectionConfig
+import java.lang.management.ManagementFactory
+import java.util.*
+
+/**
+ * Bytes allocated by the current thread while running [block].
+ */
+internal inline fun allocatedBytes(block: () -> Unit): Long {
+    val threads = ManagementFactory.getThreadMXBean() as com.sun.management.ThreadMXBean
+    val thread = Thread.currentThread().id
+    val before = threads.getThreadAllocatedBytes(thread)
+    block()
+    return threads.getThreadAllocatedBytes(thread) - before
+}
+
+/**
+ * Stand in for the layout manager, recycler, and state at the base of the helper chain. Views are mocks which have
+ * their geometry tracked here, and attached views are kept in a list like the children of the recycler view.
+ *
+ * The views are all made up front and only ever compared by identity, so nothing on them is called and a layout or
+ * scroll through the fake allocates no more than the graph does.
+ */
+internal open class FakeHost(override val layoutWidth: Int = 1000, override val layoutLimit: Int = 1000,
+                             numItems: Int = 0, val itemHeight: Int = 100) :
+        ManagerHelper, ReadWriteLayoutHelper, RecyclerHelper, StateHelper {
+    private val views = Array(numItems) { mock<View>() }
+    private val positions = IdentityHashMap<View, Int>(numItems * 2).apply {
+        views.forEachIndexed { position, view -> put(view, position) }
+    }
+    private val lefts = IntArray(numItems)
+    private val tops = IntArray(numItems)
+    private val rights = IntArray(numItems)
+    private val bottoms = IntArray(numItems)
+    private val measuredWidths = IntArray(numItems)
+    private val recycler = mock<RecyclerView.Recycler>()
+
+    val children = ArrayList<View>(numItems)
+
+    /**
+     * Detach all views, as the layout manager does before a layout pass.
+     */
+    fun detachAll() {
+        children.clear()
+    }
+
+    private fun positionOf(view: View) = positions[view] ?: throw IllegalArgumentException("Unknown view.")
+
+    override fun addView(child: View) = addView(child, -1)
+    override fun addView(child: View, index: Int) {
+        if (index == -1) children.add(child) else children.add(index, child)
+    }
+
+    override fun addDisappearingView(child: View) = addView(child)
+    override fun addDisappearingView(child: View, index: Int) = addView(child, index)
+    override fun addTemporaryView(child: View) = addView(child)
+    override fun addTemporaryView(child: View, index: Int) = addView(child, index)
+    override fun removeView(child: View, recycler: RecyclerView.Recycler) {
+        val index = children.indexOfFirst { it === child }
+        if (index != -1) children.removeAt(index)
+    }
+
+    override fun getItemViewType(child: View) = 0
+    override fun getPosition(child: View) = positionOf(child)
+    override val supportsPredictiveItemAnimations = false
+
+    override var isPreLayout = false
+    override var willRunPredictiveAnimations = false
+    override var itemCount = numItems
+    override var hasTargetScrollPosition = false
+    override var targetScrollPosition = -1
+
+    override fun getView(position: Int): View = views[position]
+    override val scrap = emptyList<RecyclerView.ViewHolder>()
+    override fun removeView(child: View, helper: LayoutHelper) = helper.removeView(child, recycler)
+
+    override val basePaddingLeft = 0
+    override val basePaddingTop = 0
+    override val basePaddingRight = 0
+    override val basePaddingBottom = 0
+    override fun attachViewToPosition(position: Int, view: View) = children.add(position, view)
+    override fun detachViewAtPosition(position: Int): View? = children.removeAt(position)
+    override fun getTransformedPaddingLeft(sectionConfig: SectionConfig) = sectionConfig.paddingLeft
+    override fun getTransformedPaddingTop(sectionConfig: SectionConfig) = sectionConfig.paddingTop
+    override fun getTransformedPaddingRight(sectionConfig: SectionConfig) = sectionConfig.paddingRight
+    override fun getTransformedPaddingBottom(sectionConfig: SectionConfig) = sectionConfig.paddingBottom
+
+    override fun getLeft(child: View) = lefts[positionOf(child)]
+    override fun getTop(child: View) = tops[positionOf(child)]
+    override fun getRight(child: View) = rights[positionOf(child)]
+    override fun getBottom(child: View) = bottoms[positionOf(child)]
+    override fun getMeasuredWidth(child: View) = measuredWidths[positionOf(child)]
+    override fun getMeasuredHeight(child: View) = itemHeight
+    override fun getMarginLeft(child: View) = 0
+    override fun getMarginTop(child: View) = 0
+    override fun getMarginRight(child: View) = 0
+    override fun getMarginBottom(child: View) = 0
+    override fun isRemoved(child: View) = false
+    override fun getAttachedRawView(position: Int): View = children[position]
+    override var stickyStartInset = 0
+    override var stickyEndInset = 0
+
+    override fun measure(view: View, usedWidth: Int, usedHeight: Int) {
+        measuredWidths[positionOf(view)] = layoutWidth - usedWidth
+    }
+
+    override fun layout(view: View, left: Int, top: Int, right: Int, bottom: Int, marginLeft: Int, marginTop: Int,
+                        marginRight: Int, marginBottom: Int) {
+        val position = positionOf(view)
+        lefts[position] = left
+        tops[position] = top
+        rights[position] = right
+        bottoms[position] = bottom
+    }
+
+    override fun offsetVertical(view: View, dy: Int) {
+        val position = positionOf(view)
+        tops[position] += dy
+        bottoms[position] += dy
+    }
+
+    override fun offsetHorizontal(view: View, dx: Int) {
+        val position = positionOf(view)
+        lefts[position] += dx
+        rights[position] += dx
+    }
+
+    override fun offsetChildrenVertical(dy: Int) {
+        for (i in 0 until children.size) offsetVertical(children[i], dy)
+    }
+
+    override fun offsetChildrenHorizontal(dx: Int) {
+        for (i in 0 until children.size) offsetHorizontal(children[i], dx)
+    }
+}
+
+/**
+ * Adapter contract for a root holding [numSections] sections of [itemsPerSection] items each.
+ */
+internal class FakeAdapter(val numSections: Int, val itemsPerSection: Int, val hasHeaders: Boolean = false,
+                           makeConfig: () -> SectionConfig = { LinearSectionConfig() }) : AdapterContract<Int> {
+    private val root = LinearSectionConfig()
+    private val configs = (0 until numSections).associate { it to makeConfig() }
+    private val ids = HashMap<Int, Int>()
+
+    /**
+     * Number of times a section has been populated.
+     */
+    var sectionsPopulated = 0
+        private set
+
+    var rootId = -1
+        private set
+
+    val itemsInSection get() = itemsPerSection + if (hasHeaders) 1 else 0
+    val itemCount get() = numSections * itemsInSection
+
+    override fun getRoot() = root
+    override fun setRootId(id: Int) {
+        rootId = id
+    }
+    override fun getSections() = configs
+    override fun getSectionIds() = configs.mapValues { ids[it.key] ?: -1 }
+    override fun setSectionIds(idMap: Map<*, Int>) = idMap.forEach { ids[it.key as Int] = it.value }
+
+    override fun populateRoot(out: SectionData) {
+        out.adapterPosition = 0
+        out.hasHeader = false
+        out.itemCount = itemCount
+        out.childCount = numSections
+        out.subsectionsById = (0 until numSections).map { ids[it]!! }
+        out.subsectionPositions = (0 until numSections).toList()
+        out.subsectionItemCounts = List(numSections) { itemsInSection }
+    }
+
+    override fun populateSection(data: Pair<*, SectionData>) {
+        val out = data.second
+        sectionsPopulated += 1
+        out.adapterPosition = (data.first as Int) * itemsInSection
+        out.hasHeader = hasHeaders
+        out.itemCount = itemsInSection
+        out.childCount = itemsPerSection
+        out.subsectionsById = emptyList()
+        out.subsectionPositions = emptyList()
+        out.subsectionItemCounts = emptyList()
+    }
+
+    private fun typeAt(positionInSection: Int) =
+            if (hasHeaders && positionInSection == 0) AdapterContract.Data.HEADER else AdapterContract.Data.OTHER
+
+    /**
+     * Child position of an item in its section. Headers are not counted among the children.
+     */
+    private fun childPositionAt(positionInSection: Int) =
+            if (hasHeaders) Math.max(positionInSection - 1, 0) else positionInSection
+
+    override fun getData(position: Int): AdapterContract.Data {
+        val positionInSection = position % itemsInSection
+        return AdapterContract.data.pack(ids[position / itemsInSection] ?: -1, childPositionAt(positionInSection),
+                                         typeAt(positionInSection))
+    }
+
+    override fun getDataRuns(start: Int, count: Int, out: AdapterContract.DataRuns) {
+        out.clear()
+        val end = start + count
+        var position = start
+        while (position < end) {
+            val section = position / itemsInSection
+            val positionInSection = position % itemsInSection
+            val type = typeAt(positionInSection)
+            // A header runs alone, items run on to the end of their section.
+            val runLength = if (type == AdapterContract.Data.HEADER) 1
+                            else Math.min(end - position, itemsInSection - positionInSection)
+            out.add(ids[section] ?: -1, childPositionAt(positionInSection), runLength, type)
+            position += runLength
+        }
+    }
+
+    override fun onLayoutManagerAttached(layoutManager: SuperSlimLayoutManager) = Unit
+    override fun onLayoutManagerDetached(layoutManager: SuperSlimLayoutManager) = Unit
+}
+
+/**
+ * A graph laid out into a [FakeHost], driven the way the layout manager drives it.
+ */
+internal open class FakeLayout(adapter: FakeAdapter, compact: Boolean = false) {
+    val host = FakeHost(numItems = adapter.itemCount)
+    val graph = GraphManager(adapter).apply { compactLayoutState = compact }
+    val helper = RootLayoutHelper(host, host, host, host)
+
+    fun layout() {
+        host.detachAll()
+        graph.layout(helper.reset())
+        graph.postLayout()
+    }
+
+    fun scrollBy(d: Int) = graph.scrollBy(d, helper.reset())
+
+    /**
+     * Top of each attached view, in attached order.
+     */
+    val childTops get() = host.children.map { host.getTop(it) }
+}
@@ -0,0 +1,98 @@
+package com.tonicartos.superslim
+
+import com.tonicartos.superslim.internal.FenwickTree
+import org.hamcrest.MatcherAssert.assertThat
+import org.hamcrest.Matchers.equalTo
+import org.junit.Before
+import org.junit.Test
+
+class FenwickTreeTests {
+    private lateinit var tree: FenwickTree
+
+    @Before
+    fun setup() {
+        tree = FenwickTree()
+        listOf(3, 1, 4, 1, 5, 9, 2, 6).forEach { tree.add(it) }
+    }
+
+    @Test
+    fun sums() {
+        assertThat("Sum of nothing is zero.", tree.sum(0), equalTo(0))
+        assertThat("Sum of first value.", tree.sum(1), equalTo(3))
+        assertThat("Sum of first five values.", tree.sum(5), equalTo(14))
+        assertThat("Sum of all values.", tree.sum(8), equalTo(31))
+    }
+
+    @Test
+    fun pointUpdate_updatesLaterSums() {
+        tree.add(2, 10)
+
+        assertThat("Value updated.", tree[2], equalTo(14))
+        assertThat("Sum before update unchanged.", tree.sum(2), equalTo(4))
+        assertThat("Sum after update includes delta.", tree.sum(3), equalTo(18))
+        assertThat("Sum of all values includes delta.", tree.sum(8), equalTo(41))
+    }
+
+    @Test
+    fun insertAndRemove_shiftValues() {
+        tree.insert(0, 7)
+        assertThat("Size grows on insert.", tree.size, equalTo(9))
+        assertThat("Inserted value is first.", tree[0], equalTo(7))
+        assertThat("Sum includes inserted value.", tree.sum(2), equalTo(10))
+
+        assertThat("Removed value returned.", tree.removeAt(3), equalTo(4))
+        assertThat("Size shrinks on remove.", tree.size, equalTo(8))
+        assertThat("Sum excludes removed value.", tree.sum(8), equalTo(34))
+
+        // Point updates after structural changes must land on the shifted entries.
+        tree.add(3, 1)
+        assertThat("Sum reflects point update after structural change.", tree.sum(4), equalTo(13))
+    }
+
+    @Test
+    fun total_followsChanges() {
+        assertThat("Total of all values.", tree.total, equalTo(31))
+        tree.add(2, 10)
+        tree.insert(0, 7)
+        tree.removeAt(5)
+        tree.move(1, 6)
+        assertThat("Total after changes.", tree.total, equalTo(tree.sum(tree.size)))
+
+        tree.clear()
+        assertThat("Nothing left.", tree.total, equalTo(0))
+    }
+
+    @Test
+    fun move_shiftsValuesBetween() {
+        tree.move(1, 4)
+        assertThat("Values shifted towards front.", tree.toString(), equalTo("[3, 4, 1, 5, 1, 9, 2, 6]"))
+        assertThat("Sum at moved value.", tree.sum(5), equalTo(14))
+
+        tree.move(6, 0)
+        assertThat("Values shifted towards back.", tree.toString(), equalTo("[2, 3, 4, 1, 5, 1, 9, 6]"))
+        assertThat("Sum of all values unchanged.", tree.sum(8), equalTo(31))
+        assertThat("Prefix sum after move.", tree.sum(3), equalTo(9))
+    }
+
+    @Test
+    fun countWithSumAtMost() {
+        assertThat("Nothing fits below the first value.", tree.countWithSumAtMost(2), equalTo(0))
+        assertThat("Exact prefix sum is included.", tree.countWithSumAtMost(3), equalTo(1))
+        assertThat("Prefix sum between entries.", tree.countWithSumAtMost(13), equalTo(4))
+        assertThat("Everything fits under a large target.", tree.countWithSumAtMost(100), equalTo(8))
+        assertThat("Negative target fits nothing.", tree.countWithSumAtMost(-1), equalTo(0))
+    }
+
+    @Test
+    fun countWithSumAtMost_pairedWithOtherTree() {
+        val other = FenwickTree()
+        listOf(2, 0, 1, 3, 0, 1, 1, 2).forEach { other.add(it) }
+        // Paired totals less one are [4, 0, 4, 3, 4, 9, 2, 7], with prefix sums [4, 4, 8, 11, 15, 24, 26, 33].
+
+        assertThat("Nothing fits below the first total.", tree.countWithSumAtMost(3, other, -1), equalTo(0))
+        assertThat("Zero totals are included.", tree.countWithSumAtMost(4, other, -1), equalTo(2))
+        assertThat("Prefix sum between entries.", tree.countWithSumAtMost(10, other, -1), equalTo(3))
+        assertThat("Prefix sum past a large total.", tree.countWithSumAtMost(25, other, -1), equalTo(6))
+        assertThat("Everything fits under the total sum.", tree.countWithSumAtMost(33, other, -1), equalTo(8))
+    }
+}
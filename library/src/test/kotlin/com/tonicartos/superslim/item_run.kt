@@ -0,0 +1,84 @@
+package com.tonicartos.superslim
+
+import com.tonicartos.superslim.adapter.Item
+import com.tonicartos.superslim.adapter.ItemRun
+import com.tonicartos.superslim.adapter.Section
+import org.hamcrest.MatcherAssert.assertThat
+import org.hamcrest.Matchers.equalTo
+import org.hamcrest.Matchers.sameInstance
+import org.junit.Before
+import org.junit.Test
+
+class ItemRunTests {
+    private lateinit var section: Section
+    private lateinit var run: ItemRun
+    private lateinit var after: Item
+
+    @Before
+    fun setup() {
+        section = Section()
+        section.header = Item(1)
+        run = ItemRun(1000000, 2) { "row $it" }
+        after = Item(3)
+        section.add(Item())
+        section.add(run)
+        section.add(after)
+    }
+
+    @Test
+    fun run_takesChildPositionForEachItem() {
+        assertThat("Items counted.", section.itemCount, equalTo(1000003))
+        assertThat("Child positions counted.", section.numChildPositions, equalTo(1000002))
+        assertThat("Child after run.", after.positionInParent, equalTo(1000001))
+        assertThat("Adapter position after run.", after.positionInAdapter, equalTo(1000002))
+    }
+
+    @Test
+    fun itemAt_findsItemsInRun() {
+        val item = section.itemAt(500002)
+
+        assertThat("Type of run.", item.type, equalTo(2))
+        assertThat("Data for position in run.", item.data, equalTo<Any>("row 500000"))
+        assertThat("Child position.", item.positionInParent, equalTo(500001))
+        assertThat("Adapter position.", item.positionInAdapter, equalTo(500002))
+        assertThat("Parent is the section holding the run.", item.parent, sameInstance(section))
+        assertThat("Plain items are found as is.", section.itemAt(1000002), sameInstance(after))
+    }
+
+    @Test
+    fun itemAt_sharesOneItemForRun() {
+        val first = section.itemAt(2)
+        val second = section.itemAt(10)
+
+        assertThat("Items in a run share an item.", second, sameInstance(first))
+        assertThat("Shared item has the data of the last lookup.", first.data, equalTo<Any>("row 8"))
+        assertThat("Shared item has the adapter position of the last lookup.", first.positionInAdapter, equalTo(10))
+    }
+
+    @Test
+    fun typeAt_matchesItemAt() {
+        listOf(0, 1, 2, 500002, 1000002).forEach {
+            assertThat("Type at $it.", section.typeAt(it), equalTo(section.itemAt(it).type))
+        }
+    }
+
+    @Test
+    fun sectionHolding_findsSubsectionAfterRun() {
+        val subsection = Section()
+        subsection.add(ItemRun(10))
+        section.insert(2, subsection)
+
+        assertThat("Subsection found.", section.sectionHolding(1000005), sameInstance(subsection))
+        assertThat("Run found in its section.", section.sectionHolding(1000001), sameInstance(section))
+        assertThat("Later child moves on.", after.positionInAdapter, equalTo(1000012))
+    }
+
+    @Test
+    fun removingRun_shiftsLaterChildren() {
+        section.remove(1)
+
+        assertThat("Child position moves back.", after.positionInParent, equalTo(1))
+        assertThat("Adapter position moves back.", after.positionInAdapter, equalTo(2))
+        assertThat("Items counted.", section.itemCount, equalTo(3))
+    }
+}
@@ -0,0 +1,41 @@
+package com.tonicartos.superslim
+
+import com.tonicartos.superslim.internal.LayerStack
+import com.tonicartos.superslim.internal.babushka
+import org.hamcrest.MatcherAssert.assertThat
+import org.hamcrest.Matchers.equalTo
+import org.junit.Before
+import org.junit.Test
+
+class LayerStackTests {
+    private lateinit var layers: LayerStack<String>
+
+    @Before
+    fun setup() {
+        layers = LayerStack(arrayOf("content", "header", "padding"))
+    }
+
+    @Test
+    fun peek_isOutermostLayer() {
+        assertThat("Top of the stack is the last layer.", layers.peek(), equalTo("padding"))
+    }
+
+    @Test
+    fun babushka_walksDownOneLayerAtATime() {
+        val seen = layers.babushka { outer ->
+            babushka { middle ->
+                babushka { inner -> listOf(outer, middle, inner) }
+            }
+        }
+
+        assertThat("Layers are walked from the outside in.", seen, equalTo(listOf("padding", "header", "content")))
+    }
+
+    @Test
+    fun babushka_exposesLayersUnderneath() {
+        val under = layers.babushka { peek() }
+
+        assertThat("Inside a layer, the next one down is on top.", under, equalTo("header"))
+        assertThat("Cursor is restored afterwards.", layers.peek(), equalTo("padding"))
+    }
+}
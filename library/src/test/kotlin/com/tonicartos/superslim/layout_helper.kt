@@ -0,0 +1,92 @@
+package com.tonicartos.superslim
+
+import com.tonicartos.superslim.internal.*
+import com.tonicartos.superslim.internal.SectionState.LayoutState
+import org.hamcrest.MatcherAssert.assertThat
+import org.hamcrest.Matchers.equalTo
+import org.hamcrest.Matchers.lessThan
+import org.junit.Before
+import org.junit.Test
+
+class LayoutHelperTests {
+    private lateinit var root: RootLayoutHelper
+
+    @Before
+    fun setup() {
+        val host = FakeHost()
+        root = RootLayoutHelper(host, host, host, host)
+    }
+
+    @Test
+    fun viewsChangedInSubsection_propagateToAncestors() {
+        val outerState = LayoutState()
+        val innerState = LayoutState()
+        root.useSubsectionHelper(0, 0, 100, 0, 0, 0, outerState) { outer ->
+            outer.useSubsectionHelper(0, 0, 100, 0, 0, 0, innerState) { inner ->
+                inner.viewsChangedBy(3)
+            }
+        }
+
+        assertThat("Inner section counts its own views.", innerState.numViews, equalTo(3))
+        assertThat("Outer section counts views added in subsections.", outerState.numViews, equalTo(3))
+    }
+
+    @Test
+    fun reusedHelper_reportsToNewParent() {
+        val firstState = LayoutState()
+        val secondState = LayoutState()
+        val innerState = LayoutState()
+        root.useSubsectionHelper(0, 0, 100, 0, 0, 0, firstState) { first ->
+            first.useSubsectionHelper(0, 0, 100, 0, 0, 0, innerState) { it.viewsChangedBy(1) }
+        }
+        root.useSubsectionHelper(0, 0, 100, 0, 0, 0, secondState) { second ->
+            second.useSubsectionHelper(0, 0, 100, 0, 0, 0, innerState) { it.viewsChangedBy(2) }
+        }
+
+        assertThat("First parent only sees the first change.", firstState.numViews, equalTo(1))
+        assertThat("Second parent only sees the second change.", secondState.numViews, equalTo(2))
+    }
+
+    @Test
+    fun measureInPreLayout_isNotCached() {
+        val host = FakeHost(numItems = 10)
+        val helper = RootLayoutHelper(host, host, host, host)
+        val cache = ExtentCache(16)
+        helper.extentCache = cache
+
+        host.isPreLayout = true
+        helper.measure(host.getView(3))
+        assertThat("Pre-layout measure is not cached.", cache[3, 0], equalTo(ExtentCache.NO_EXTENT))
+
+        host.isPreLayout = false
+        helper.measure(host.getView(3))
+        assertThat("Layout measure is cached.", cache[3, 0], equalTo(host.itemHeight))
+    }
+
+    /**
+     * Acquiring nested helpers is done for every section on every scroll frame, so once the pool is warm it must not
+     * allocate.
+     */
+    @Test
+    fun nestedHelpers_doNotAllocateOnceWarm() {
+        val states = Array(3) { LayoutState() }
+        val frame = {
+            root.reset()
+            root.useSubsectionHelper(0, 0, 100, 0, 0, 0, states[0]) { a ->
+                a.useSubsectionHelper(10, 0, 100, 0, 0, 0, states[1]) { b ->
+                    b.useSubsectionHelper(10, 0, 100, 0, 0, 0, states[2]) { c ->
+                        c.viewsChangedBy(1)
+                        c.viewsChangedBy(-1)
+                    }
+                }
+            }
+        }
+        repeat(1000) { frame() }
+
+        val frames = 10000
+        val allocated = allocatedBytes { repeat(frames) { frame() } }
+
+        assertThat("Bytes allocated over $frames frames.", allocated, lessThan(frames.toLong()))
+        assertThat("Views balance out.", states[0].numViews, equalTo(0))
+    }
+}
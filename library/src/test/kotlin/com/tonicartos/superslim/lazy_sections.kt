@@ -0,0 +1,182 @@
+package com.tonicartos.superslim
+
+import com.tonicartos.superslim.internal.Anchor
+import com.tonicartos.superslim.internal.GraphManager
+import com.tonicartos.superslim.layout.LinearSectionConfig
+import org.hamcrest.MatcherAssert.assertThat
+import org.hamcrest.Matchers.equalTo
+import org.hamcrest.Matchers.greaterThan
+import org.hamcrest.Matchers.lessThanOrEqualTo
+import org.hamcrest.Matchers.notNullValue
+import org.hamcrest.Matchers.nullValue
+import org.hamcrest.Matchers.sameInstance
+import org.junit.Before
+import org.junit.Test
+
+class LazySectionTests {
+    private lateinit var adapter: FakeAdapter
+
+    @Before
+    fun setup() {
+        adapter = FakeAdapter(1000, 10)
+    }
+
+    @Test
+    fun newGraph_populatesNoSections() {
+        val graph = GraphManager(adapter)
+
+        assertThat("No section populated.", adapter.sectionsPopulated, equalTo(0))
+        assertThat("Root counts all items.", graph.root.totalItems, equalTo(10000))
+        assertThat("Placeholders resolve positions.", graph.root.subsections[500].positionInAdapter, equalTo(5000))
+    }
+
+    @Test
+    fun layout_loadsOnlyReachedSections() {
+        val layout = FakeLayout(adapter)
+        layout.layout()
+
+        assertThat("Only sections in the viewport are populated.", adapter.sectionsPopulated, lessThanOrEqualTo(2))
+        assertThat("Viewport is filled.", layout.childTops, equalTo((0 until 10).map { it * 100 }))
+    }
+
+    @Test
+    fun anchor_loadsTargetSection() {
+        val layout = FakeLayout(adapter)
+        layout.graph.requestedAnchor = Anchor(5005)
+        layout.layout()
+
+        assertThat("Anchored section is loaded.", layout.graph.root.subsections[500].isLoaded, equalTo(true))
+        assertThat("Sections scrolled past are not.", layout.graph.root.subsections[499].isLoaded, equalTo(false))
+        assertThat("Only sections in the viewport are populated.", adapter.sectionsPopulated, lessThanOrEqualTo(2))
+    }
+
+    @Test
+    fun removalFromPlaceholder_onlyChangesCounts() {
+        val graph = GraphManager(adapter)
+        graph.root.removeItems(5002, 5)
+
+        assertThat("Placeholder count is reduced.", graph.root.subsections[500].totalItems, equalTo(5))
+        assertThat("Later sections move up.", graph.root.subsections[501].positionInAdapter, equalTo(5005))
+        assertThat("Placeholder is not loaded.", graph.root.subsections[500].isLoaded, equalTo(false))
+        assertThat("No section populated.", adapter.sectionsPopulated, equalTo(0))
+    }
+
+    @Test
+    fun reconcileUnchanged_keepsLayoutState() {
+        val layout = FakeLayout(adapter)
+        layout.layout()
+        layout.scrollBy(250)
+        val tops = layout.childTops
+        val populated = adapter.sectionsPopulated
+
+        layout.graph.reconcile(adapter)
+
+        assertThat("No fresh layout is requested.", layout.graph.requestedAnchor, nullValue())
+        assertThat("Only sections with layout state are populated.", adapter.sectionsPopulated - populated,
+                   lessThanOrEqualTo(2))
+        layout.layout()
+        assertThat("Layout carries on from where it was.", layout.childTops, equalTo(tops))
+    }
+
+    @Test
+    fun reconcileChanged_laysOutFromAnchor() {
+        val layout = FakeLayout(adapter)
+        layout.layout()
+
+        layout.graph.reconcile(FakeAdapter(1000, 10, hasHeaders = true))
+
+        assertThat("Layout starts afresh from the old anchor.", layout.graph.requestedAnchor, notNullValue())
+    }
+
+    @Test
+    fun changesToRemovedSection_areDropped() {
+        val layout = FakeLayout(adapter)
+        layout.layout()
+        val id = adapter.getSectionIds()[3]!!
+        layout.graph.queueSectionRemoved(id, adapter.rootId)
+        layout.host.isPreLayout = true
+        layout.layout()
+        layout.host.isPreLayout = false
+        layout.layout()
+        val populated = adapter.sectionsPopulated
+
+        // Changes notified late, with the id of the section that is gone now.
+        layout.graph.queueSectionUpdated(id, LinearSectionConfig())
+        layout.graph.queueSectionRemoved(id, adapter.rootId)
+        layout.graph.addItems(id, 0, 1)
+        layout.host.isPreLayout = true
+        layout.layout()
+        layout.host.isPreLayout = false
+        layout.layout()
+
+        assertThat("Section stays removed.", layout.graph.root.subsections.size, equalTo(999))
+        assertThat("Graph is not reloaded.", adapter.sectionsPopulated, equalTo(populated))
+    }
+
+    @Test
+    fun changesUnderPlaceholder_onlyChangeCounts() {
+        val layout = FakeLayout(adapter)
+        layout.layout()
+        val populated = adapter.sectionsPopulated
+        val parent = adapter.getSectionIds()[500]!!
+
+        val section = layout.graph.sectionAdded(parent, 0, LinearSectionConfig())
+        layout.graph.addHeader(section, 5000)
+        layout.graph.addItems(section, 0, 3, 5001)
+        layout.graph.removeHeader(section, 5000)
+        layout.layout()
+
+        assertThat("Placeholder counts the items.", layout.graph.root.subsections[500].totalItems, equalTo(13))
+        assertThat("Placeholder is not loaded.", layout.graph.root.subsections[500].isLoaded, equalTo(false))
+        assertThat("Graph is not reloaded.", adapter.sectionsPopulated, equalTo(populated))
+        assertThat("No fresh layout is requested.", layout.graph.requestedAnchor, nullValue())
+    }
+
+    @Test
+    fun reload_waitsForPostLayoutAndKeepsQueuedChanges() {
+        val layout = FakeLayout(adapter)
+        layout.layout()
+        val populated = adapter.sectionsPopulated
+        val first = adapter.getSectionIds()[0]!!
+
+        // A change without a position, to a section not in the graph, can only be applied by a reload.
+        val section = layout.graph.sectionAdded(adapter.getSectionIds()[500]!!, 0, LinearSectionConfig())
+        layout.graph.addHeader(section)
+        layout.graph.queueSectionUpdated(first, LinearSectionConfig(paddingTop = 5))
+
+        layout.host.isPreLayout = true
+        layout.layout()
+        assertThat("Pre-layout: Graph is not reloaded.", adapter.sectionsPopulated, equalTo(populated))
+
+        layout.host.isPreLayout = false
+        layout.layout()
+        assertThat("Post-layout: Graph is reloaded.", adapter.sectionsPopulated, greaterThan(populated))
+        assertThat("Post-layout: Queued update is applied.", layout.graph.root.subsections[0].baseConfig.paddingTop,
+                   equalTo(5))
+    }
+
+    @Test
+    fun placeholderHolding_findsPlaceholderForChange() {
+        val graph = GraphManager(adapter)
+        val root = graph.root
+
+        assertThat("Inside a placeholder.", root.placeholderHolding(5002), sameInstance(root.subsections[500]))
+        assertThat("Start of a placeholder is in it, not in the one before.", root.placeholderHolding(5000),
+                   sameInstance(root.subsections[500]))
+        assertThat("End of the last placeholder.", root.placeholderHolding(10000), sameInstance(root.subsections[999]))
+    }
+
+    @Test
+    fun additionToPlaceholder_onlyChangesCounts() {
+        val layout = FakeLayout(adapter)
+        layout.layout()
+        val populated = adapter.sectionsPopulated
+
+        layout.graph.root.placeholderHolding(5002)!!.addItems(2, 3)
+        layout.layout()
+
+        assertThat("Placeholder count is increased.", layout.graph.root.subsections[500].totalItems, equalTo(13))
+        assertThat("Later sections move down.", layout.graph.root.subsections[501].positionInAdapter, equalTo(5013))
+        assertThat("Graph is not reloaded.", adapter.sectionsPopulated, equalTo(populated))
+    }
+}
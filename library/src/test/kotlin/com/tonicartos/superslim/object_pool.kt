@@ -0,0 +1,53 @@
+package com.tonicartos.superslim
+
+import com.tonicartos.superslim.internal.ObjectPool
+import org.hamcrest.MatcherAssert.assertThat
+import org.hamcrest.Matchers.*
+import org.junit.Before
+import org.junit.Test
+
+class ObjectPoolTests {
+    private lateinit var pool: ObjectPool<Any>
+
+    @Before
+    fun setup() {
+        pool = ObjectPool(maxSize = 2)
+    }
+
+    @Test
+    fun acquire_isLastInFirstOut() {
+        val first = Any()
+        val second = Any()
+        pool.release(first)
+        pool.release(second)
+
+        assertThat("Last released is acquired first.", pool.acquire(), sameInstance(second))
+        assertThat("First released is acquired last.", pool.acquire(), sameInstance(first))
+        assertThat("Empty pool gives nothing.", pool.acquire(), nullValue())
+    }
+
+    @Test
+    fun release_dropsObjectsOverCap() {
+        (0..3).forEach { pool.release(Any()) }
+
+        assertThat("Pool size is capped.", pool.size, equalTo(2))
+        assertThat("High water is capped.", pool.highWater, equalTo(2))
+    }
+
+    @Test
+    fun counters() {
+        pool.acquire()
+        pool.release(Any())
+        pool.acquire()
+        pool.acquire()
+
+        assertThat("One acquisition hit.", pool.hits, equalTo(1))
+        assertThat("Two acquisitions missed.", pool.misses, equalTo(2))
+        assertThat("High water of one.", pool.highWater, equalTo(1))
+
+        pool.resetCounters()
+        assertThat("Hits reset.", pool.hits, equalTo(0))
+        assertThat("Misses reset.", pool.misses, equalTo(0))
+        assertThat("High water reset to current size.", pool.highWater, equalTo(0))
+    }
+}
@@ -0,0 +1,136 @@
+package com.tonicartos.superslim
+
+import com.tonicartos.superslim.layout.GridSectionConfig
+import com.tonicartos.superslim.layout.LinearSectionConfig
+import org.hamcrest.MatcherAssert.assertThat
+import org.hamcrest.Matchers.allOf
+import org.hamcrest.Matchers.equalTo
+import org.hamcrest.Matchers.greaterThanOrEqualTo
+import org.hamcrest.Matchers.lessThan
+import org.junit.Before
+import org.junit.Test
+
+class ScrollEstimationTests {
+    private lateinit var estimator: AverageExtentEstimator
+    private lateinit var layout: FakeLayout
+
+    @Before
+    fun setup() {
+        estimator = AverageExtentEstimator()
+        layout = FakeLayout(FakeAdapter(100, 100))
+        layout.helper.extentEstimator = estimator
+    }
+
+    @Test
+    fun nothingMeasured_estimatesNothing() {
+        assertThat("No content extent.", layout.graph.estimateContentExtent(estimator), equalTo(0))
+        assertThat("No scroll offset.", layout.graph.estimateScrollOffset(estimator), equalTo(0))
+    }
+
+    @Test
+    fun layout_estimatesContentFromMeasuredItems() {
+        layout.layout()
+
+        assertThat("Content extent.", layout.graph.estimateContentExtent(estimator), equalTo(1000000))
+        assertThat("Scroll offset.", layout.graph.estimateScrollOffset(estimator), equalTo(0))
+    }
+
+    @Test
+    fun scroll_movesOffset() {
+        layout.layout()
+        layout.scrollBy(250)
+
+        assertThat("Scroll offset.", layout.graph.estimateScrollOffset(estimator), equalTo(250))
+    }
+
+    @Test
+    fun scrollIntoLaterSection_movesOffset() {
+        layout.layout()
+        repeat(30) { layout.scrollBy(500) }
+
+        assertThat("Scroll offset.", layout.graph.estimateScrollOffset(estimator), equalTo(15000))
+    }
+
+    @Test
+    fun itemsScrolledBackOver_areCountedOnce() {
+        var measured = 0
+        layout.helper.extentEstimator = object : ExtentEstimator {
+            override fun onItemMeasured(viewType: Int, extent: Int) {
+                measured += 1
+            }
+
+            override fun estimateExtent(itemCount: Int) = 0
+        }
+        layout.layout()
+        repeat(10) { layout.scrollBy(500) }
+        repeat(10) { layout.scrollBy(-500) }
+
+        assertThat("Each item reached is counted once.", measured, equalTo(60))
+    }
+
+    @Test
+    fun estimator_followsRecentItems() {
+        val estimator = AverageExtentEstimator(maxSamples = 10)
+        repeat(10) { estimator.onItemMeasured(0, 100) }
+        repeat(100) { estimator.onItemMeasured(0, 50) }
+
+        assertThat("Old samples are dropped.", estimator.estimateExtent(100),
+                   allOf(greaterThanOrEqualTo(5000), lessThan(5100)))
+    }
+
+    @Test
+    fun gridSection_estimatedByRows() {
+        val section = GridSectionConfig().apply { numColumns = 4 }.makeSection()
+        section.addItems(0, 10)
+        repeat(4) { section.onItemMeasured(100) }
+
+        assertThat("Three rows of items.", section.estimateExtent(estimator), equalTo(300))
+    }
+
+    @Test
+    fun sections_keepTheirOwnAverages() {
+        val parent = LinearSectionConfig().makeSection()
+        val grid = GridSectionConfig().apply { numColumns = 4 }.makeSection().apply { addItems(0, 8) }
+        val linear = LinearSectionConfig().makeSection().apply { addItems(0, 8) }
+        parent.insertSection(0, grid)
+        parent.insertSection(1, linear)
+        repeat(8) { grid.onItemMeasured(100) }
+        repeat(8) { linear.onItemMeasured(10) }
+
+        assertThat("Two rows of the grid and eight lines of the linear section.", parent.estimateExtent(estimator),
+                   equalTo(280))
+        assertThat("Extent before the linear section.", parent.estimateExtentBefore(linear.positionInAdapter, estimator),
+                   equalTo(200))
+    }
+
+    @Test
+    fun changesDeepInGraph_reachRootEstimate() {
+        val root = LinearSectionConfig().makeSection()
+        val middle = LinearSectionConfig().makeSection()
+        val leaf = LinearSectionConfig().makeSection().apply { addItems(0, 10) }
+        root.insertSection(0, middle)
+        middle.insertSection(0, leaf)
+        repeat(10) { leaf.onItemMeasured(20) }
+
+        assertThat("Measurements in the leaf reach the root.", root.estimateExtent(estimator), equalTo(200))
+
+        root.removeItems(0, 5)
+        assertThat("Removed items leave the root estimate.", root.estimateExtent(estimator), equalTo(100))
+        assertThat("Extent before the last item of the leaf.", root.estimateExtentBefore(4, estimator), equalTo(80))
+    }
+
+    @Test
+    fun newStateForSection_keepsMeasurements() {
+        val parent = LinearSectionConfig().makeSection()
+        val oldState = LinearSectionConfig().makeSection().apply { addItems(0, 10) }
+        parent.insertSection(0, oldState)
+        repeat(10) { oldState.onItemMeasured(30) }
+
+        val newState = LinearSectionConfig(paddingTop = 10).makeSection(oldState)
+        parent.replaceSubsection(oldState, newState)
+
+        assertThat("New state estimates from the old measurements.", newState.estimateExtent(estimator),
+                   equalTo(310))
+        assertThat("Parent picks up the padding of the new state.", parent.estimateExtent(estimator), equalTo(310))
+    }
+}
@@ -0,0 +1,102 @@
+package com.tonicartos.superslim
+
+import com.tonicartos.superslim.internal.Anchor
+import com.tonicartos.superslim.internal.GraphManager
+import com.tonicartos.superslim.layout.GridSectionConfig
+import com.tonicartos.superslim.layout.LinearSectionConfig
+import org.hamcrest.MatcherAssert.assertThat
+import org.hamcrest.Matchers.equalTo
+import org.junit.Before
+import org.junit.Test
+
+class ScrollToPositionTests {
+    private lateinit var layout: FakeLayout
+
+    @Before
+    fun setup() {
+        layout = FakeLayout(FakeAdapter(1000, 10, hasHeaders = true) {
+            LinearSectionConfig(headerStyle = SectionConfig.HEADER_INLINE)
+        })
+        layout.layout()
+    }
+
+    private fun topOf(position: Int) = layout.host.getTop(layout.host.getView(position))
+    private fun isAttached(position: Int) = layout.host.children.contains(layout.host.getView(position))
+
+    @Test
+    fun item_isLaidOutAtTop() {
+        layout.graph.requestPosition(5505, 0)
+        layout.layout()
+
+        assertThat("Target is attached.", isAttached(5505), equalTo(true))
+        assertThat("Target is at the top.", topOf(5505), equalTo(0))
+        assertThat("Nothing in front of the target.", isAttached(5504), equalTo(false))
+    }
+
+    @Test
+    fun header_isLaidOutAtTop() {
+        layout.graph.requestPosition(5500, 0)
+        layout.layout()
+
+        assertThat("Header is at the top.", topOf(5500), equalTo(0))
+    }
+
+    @Test
+    fun negativeOffset_isOverdrawn() {
+        layout.graph.requestPosition(5505, -30)
+        layout.layout()
+
+        assertThat("Target is drawn past the top.", topOf(5505), equalTo(-30))
+    }
+
+    @Test
+    fun positiveOffset_startsFromCachedItemsInFront() {
+        repeat(10) { layout.scrollBy(500) }
+        layout.graph.requestPosition(30, 250)
+
+        assertThat("Anchor starts in front of the target.", layout.graph.requestedAnchor, equalTo(Anchor(27, 50)))
+
+        layout.layout()
+
+        assertThat("Target is at the offset.", topOf(30), equalTo(250))
+        assertThat("Item in front is drawn past the top.", topOf(27), equalTo(-50))
+    }
+
+    @Test
+    fun positiveOffset_fillsInFrontOfUncachedTarget() {
+        layout.graph.requestPosition(5505, 250)
+        layout.layout()
+
+        assertThat("Target is at the offset.", topOf(5505), equalTo(250))
+        assertThat("Items in front are filled.", topOf(5502), equalTo(-50))
+    }
+
+    @Test
+    fun positiveOffset_stopsAtStartOfContent() {
+        layout.graph.requestPosition(1, 500)
+        layout.layout()
+
+        assertThat("Content starts at the top.", topOf(0), equalTo(0))
+    }
+
+    @Test
+    fun positiveOffsetInGrid_isFilledAfterLayout() {
+        val graph = GraphManager(FakeAdapter(10, 10) { GridSectionConfig().apply { numColumns = 3 } })
+        // Reaching the section loads it.
+        graph.root.subsections[2].anchor
+        (20 until 25).forEach { graph.extentCache.put(it, 0, 100) }
+
+        graph.requestPosition(25, 250)
+
+        assertThat("Items sharing rows don't stack, so the anchor is the target.", graph.requestedAnchor,
+                   equalTo(Anchor(25, 0)))
+    }
+
+    @Test
+    fun positiveOffset_stopsAtSectionHeader() {
+        repeat(10) { layout.scrollBy(500) }
+        layout.graph.requestPosition(24, 250)
+
+        assertThat("Anchor starts after the header.", layout.graph.requestedAnchor, equalTo(Anchor(23, 0)))
+    }
+}
@@ -1,5 +1,7 @@
 package com.tonicartos.superslim
 
+import com.tonicartos.superslim.adapter.ItemRun
+import com.tonicartos.superslim.adapter.SectionContract
 import com.tonicartos.superslim.internal.SectionState
 import com.tonicartos.superslim.layout.LinearSectionConfig
 import org.hamcrest.MatcherAssert.assertThat
@@ -7,6 +9,7 @@ import org.hamcrest.Matchers.equalTo
 import org.hamcrest.Matchers.sameInstance
 import org.junit.Before
 import org.junit.Test
+import com.tonicartos.superslim.adapter.Section as GraphSection
 
 class Section {
     lateinit var section: SectionState
@@ -324,6 +327,102 @@ class Section {
         assertThat("After: Subsection 3 is in position four of subsection list.", section.subsections[4], sameInstance(subsection[3]))
     }
 
+    /**
+     * Check inserting a batch of sections gives the same graph as inserting them one at a time.
+     */
+    @Test
+    fun insertSections_matchesSequentialInsertion() {
+        val positions = intArrayOf(-1, 0, 7, 3, 7)
+        val sequential = LinearSectionConfig().makeSection()
+        val batched = LinearSectionConfig().makeSection()
+        listOf(sequential, batched).forEach {
+            it.addItems(0, 4)
+            it.insertSection(-1, LinearSectionConfig().makeSection().apply { addItems(0, 2) })
+            it.addItems(-1, 3)
+        }
+        val sequentialInserts = positions.map { LinearSectionConfig().makeSection().apply { addItems(0, it + 2) } }
+        val batchedInserts = positions.map { LinearSectionConfig().makeSection().apply { addItems(0, it + 2) } }
+
+        sequentialInserts.forEachIndexed { i, it -> sequential.insertSection(positions[i], it) }
+        batched.insertSections(positions, batchedInserts)
+
+        assertThat("Same number of children.", batched.numChildren, equalTo(sequential.numChildren))
+        assertThat("Same total items.", batched.totalItems, equalTo(sequential.totalItems))
+        assertThat("Same number of subsections.", batched.subsections.size, equalTo(sequential.subsections.size))
+        sequential.subsections.forEachIndexed { i, it ->
+            assertThat("Subsection $i has same item count.", batched.subsections[i].totalItems, equalTo(it.totalItems))
+            assertThat("Subsection $i has same adapter position.", batched.subsections[i].positionInAdapter, equalTo(it.positionInAdapter))
+        }
+        batchedInserts.forEachIndexed { i, it ->
+            assertThat("Inserted section $i has same adapter position.", it.positionInAdapter, equalTo(sequentialInserts[i].positionInAdapter))
+        }
+    }
+
+    /**
+     * Check moving subsections within a section gives the same graph as removing and re-inserting them.
+     */
+    @Test
+    fun moveSubsection_matchesRemoveAndInsert() {
+        // Pairs of (subsection index, child position to move to).
+        val moves = listOf(0 to 9, 4 to 0, 2 to 5, 1 to -1, 3 to 3)
+        moves.forEach { (index, toPosition) ->
+            val moved = LinearSectionConfig().makeSection()
+            val reinserted = LinearSectionConfig().makeSection()
+            listOf(moved, reinserted).forEach { section ->
+                (0..4).forEach {
+                    section.insertSection(-1, LinearSectionConfig().makeSection().apply { addItems(0, it + 1) })
+                    section.addItems(-1, 1)
+                }
+            }
+
+            moved.moveSubsection(moved.subsections[index], toPosition)
+            val subsection = reinserted.subsections[index]
+            reinserted.removeSection(subsection)
+            reinserted.insertSection(toPosition, subsection)
+
+            assertThat("Move $index to $toPosition: same number of children.", moved.numChildren, equalTo(reinserted.numChildren))
+            assertThat("Move $index to $toPosition: same total items.", moved.totalItems, equalTo(reinserted.totalItems))
+            reinserted.subsections.forEachIndexed { i, it ->
+                assertThat("Move $index to $toPosition: subsection $i has same item count.", moved.subsections[i].totalItems, equalTo(it.totalItems))
+                assertThat("Move $index to $toPosition: subsection $i has same adapter position.", moved.subsections[i].positionInAdapter, equalTo(it.positionInAdapter))
+            }
+        }
+    }
+
+    /**
+     * Check moving a section past a run of items tells the layout manager the child position, not the child index.
+     */
+    @Test
+    fun moveSectionAcrossItemRun_notifiesChildPosition() {
+        val moves = arrayListOf<Int>()
+        val contract = object : SectionContract {
+            var nextId = 0
+            override fun notifySectionInserted(section: GraphSection) = nextId++
+            override fun notifySectionRemoved(section: GraphSection) {}
+            override fun notifySectionMoved(section: GraphSection, toParent: GraphSection, toPosition: Int) {
+                moves.add(toPosition)
+            }
+
+            override fun notifySectionUpdated(section: GraphSection) {}
+        }
+        val root = GraphSection(contract)
+        root.insertItemsToAdapter()
+        val moving = GraphSection()
+        root.add(moving)
+        root.add(ItemRun(5))
+        root.add(GraphSection())
+
+        root.move(0, 2)
+
+        assertThat("Moved after run and section: child position six.", moves[0], equalTo(6))
+        assertThat("Moved section has child position six.", moving.positionInParent, equalTo(6))
+
+        root.move(2, 1)
+
+        assertThat("Moved back after run: child position five.", moves[1], equalTo(5))
+        assertThat("Moved section has child position five.", moving.positionInParent, equalTo(5))
+    }
+
     /**
      * Check removing an empty section.
      */
@@ -656,6 +755,21 @@ class PropagationToSiblings {
         assertThat("After: Sibling 3 has adapter position fifteen.", sibling[3].positionInAdapter, equalTo(15))
 
     }
+
+    @Test
+    fun totalItemsChangeAfterSiblingsShifted_updatesLaterSiblingAdapterPositions() {
+        // Shift the siblings' indices in the parent by inserting and removing subsections in front of them.
+        parent.insertSection(0, section)
+        parent.removeSection(sibling[0])
+
+        sibling[1].addItems(0, 3)
+        sibling[2].removeItems(10, 2)
+
+        assertThat("After: Sibling 1 has adapter position zero.", sibling[1].positionInAdapter, equalTo(0))
+        assertThat("After: Sibling 2 has adapter position eight.", sibling[2].positionInAdapter, equalTo(8))
+        assertThat("After: Sibling 3 has adapter position eleven.", sibling[3].positionInAdapter, equalTo(11))
+        assertThat("After: Parent has sixteen items.", parent.totalItems, equalTo(16))
+    }
 }
 
 class PropagationToDescendants {
@@ -711,4 +825,38 @@ class PropagationToDescendants {
         assertThat("After: Child 2 has adapter position eighteen.", child[2].positionInAdapter, equalTo(18))
         assertThat("After: Child 3 has adapter position twenty three.", child[3].positionInAdapter, equalTo(43))
     }
+
+    @Test
+    fun addHeader_updatesDescendantsAdapterPositions() {
+        child[2].addHeader()
+
+        assertThat("After: Child 2 has adapter position ten.", child[2].positionInAdapter, equalTo(10))
+        grandChild.forEachIndexed { i, it -> assertThat("After: Grandchild $i has adapter position ${11 + i * 6}.", it.positionInAdapter, equalTo(11 + i * 6)) }
+        assertThat("After: Child 3 has adapter position thirty six.", child[3].positionInAdapter, equalTo(36))
+    }
+
+    @Test
+    fun removeItemsBeforeSubsection_updatesLaterSubsectionAdapterPositions() {
+        // Remove the first item in child 2, which is after grandchild 0 and before grandchild 1.
+        parent.removeItems(15, 1)
+
+        assertThat("After: Grandchild 0 has adapter position ten.", grandChild[0].positionInAdapter, equalTo(10))
+        grandChild.drop(1).forEachIndexed { i, it -> assertThat("After: Grandchild ${i + 1} has adapter position ${15 + i * 6}.", it.positionInAdapter, equalTo(15 + i * 6)) }
+        assertThat("After: Child 3 has adapter position thirty four.", child[3].positionInAdapter, equalTo(34))
+    }
+
+    @Test
+    fun insertedSubtree_followsChangesInNewGraph() {
+        val subsection = LinearSectionConfig().makeSection().apply { addItems(0, 2) }
+        val subsubsection = LinearSectionConfig().makeSection().apply { addItems(0, 5) }
+        subsection.insertSection(1, subsubsection)
+        assertThat("Before: Subsubsection has adapter position one in its own subtree.", subsubsection.positionInAdapter, equalTo(1))
+
+        parent.insertSection(1, subsection)
+        assertThat("Inserted: Subsubsection has adapter position six.", subsubsection.positionInAdapter, equalTo(6))
+
+        // A change further up the graph moves the inserted subtree along with it.
+        child[0].addItems(0, 3)
+        assertThat("After: Subsubsection has adapter position nine.", subsubsection.positionInAdapter, equalTo(9))
+    }
 }
\ No newline at end of file
@@ -0,0 +1,128 @@
+package com.tonicartos.superslim
+
+import com.tonicartos.superslim.layout.FlexboxSectionConfig
+import com.tonicartos.superslim.layout.GridSectionConfig
+import com.tonicartos.superslim.layout.LinearSectionConfig
+import com.tonicartos.superslim.layout.StaggeredGridSectionConfig
+import org.hamcrest.MatcherAssert.assertThat
+import org.hamcrest.Matchers.equalTo
+import org.hamcrest.Matchers.not
+import org.hamcrest.Matchers.sameInstance
+import org.junit.Before
+import org.junit.Test
+
+class SectionConfigTests {
+    private lateinit var adapter: FakeAdapter
+    private lateinit var layout: FakeLayout
+    private var sectionId = 0
+
+    @Before
+    fun setup() {
+        adapter = FakeAdapter(10, 10)
+        layout = FakeLayout(adapter)
+        layout.layout()
+        sectionId = adapter.getSectionIds()[0]!!
+    }
+
+    private val state get() = layout.graph.root.subsections[0]
+
+    @Test
+    fun copy_keepsPadding() {
+        listOf(FlexboxSectionConfig(paddingStart = 1, paddingTop = 2, paddingEnd = 3, paddingBottom = 4),
+               GridSectionConfig(paddingStart = 1, paddingTop = 2, paddingEnd = 3, paddingBottom = 4),
+               LinearSectionConfig(paddingStart = 1, paddingTop = 2, paddingEnd = 3, paddingBottom = 4),
+               StaggeredGridSectionConfig(paddingStart = 1, paddingTop = 2, paddingEnd = 3, paddingBottom = 4))
+                .forEach {
+                    val copy = it.copy()
+                    assertThat("Padding of ${it.javaClass.simpleName}.",
+                               listOf(copy.paddingLeft, copy.paddingTop, copy.paddingRight, copy.paddingBottom),
+                               equalTo(listOf(1, 2, 3, 4)))
+                }
+    }
+
+    @Test
+    fun equivalentUpdate_keepsState() {
+        val before = state
+        layout.graph.queueSectionUpdated(sectionId, LinearSectionConfig())
+        layout.layout()
+
+        assertThat("Section state is kept.", state, sameInstance(before))
+    }
+
+    @Test
+    fun updatesCancellingOut_keepState() {
+        val before = state
+        layout.graph.queueSectionUpdated(sectionId, LinearSectionConfig(headerStyle = SectionConfig.HEADER_INLINE))
+        layout.graph.queueSectionUpdated(sectionId, LinearSectionConfig())
+        layout.layout()
+
+        assertThat("Section state is kept.", state, sameInstance(before))
+    }
+
+    @Test
+    fun lastUpdate_wins() {
+        layout.graph.queueSectionUpdated(sectionId, LinearSectionConfig(headerStyle = SectionConfig.HEADER_INLINE))
+        layout.graph.queueSectionUpdated(sectionId, LinearSectionConfig(headerStyle = SectionConfig.HEADER_START))
+        layout.layout()
+
+        assertThat("Last config applies.", state.baseConfig.headerStyle, equalTo(SectionConfig.HEADER_START))
+    }
+
+    @Test
+    fun configChangedInPlace_appliesOnceSetAgain() {
+        val config = adapter.getSections()[0]!!
+        config.headerStyle = SectionConfig.HEADER_INLINE
+        layout.layout()
+        assertThat("Change is not seen before it is notified.", state.baseConfig.headerStyle,
+                   equalTo(SectionConfig.DEFAULT_HEADER_STYLE))
+
+        layout.graph.queueSectionUpdated(sectionId, config)
+        layout.layout()
+        assertThat("Change applies once the same config is set again.", state.baseConfig.headerStyle,
+                   equalTo(SectionConfig.HEADER_INLINE))
+        assertThat("Graph holds a copy of the config.", state.baseConfig, not(sameInstance(config)))
+    }
+
+    @Test
+    fun update_isAppliedOnce() {
+        layout.graph.queueSectionUpdated(sectionId, LinearSectionConfig(headerStyle = SectionConfig.HEADER_INLINE))
+        layout.layout()
+        val updated = state
+        layout.layout()
+
+        assertThat("Section is not rebuilt by later layouts.", state, sameInstance(updated))
+    }
+
+    @Test
+    fun removal_dropsUpdate() {
+        val before = state
+        layout.graph.queueSectionUpdated(sectionId, LinearSectionConfig(headerStyle = SectionConfig.HEADER_INLINE))
+        layout.graph.queueSectionRemoved(sectionId, adapter.rootId)
+        layout.graph.queueSectionUpdated(sectionId, LinearSectionConfig(headerStyle = SectionConfig.HEADER_START))
+        layout.layout()
+
+        assertThat("Update is not applied.", state, sameInstance(before))
+    }
+
+    @Test
+    fun changedUpdate_replacesState() {
+        val before = state
+        val config = LinearSectionConfig(headerStyle = SectionConfig.HEADER_INLINE)
+        layout.graph.queueSectionUpdated(sectionId, config)
+        layout.layout()
+
+        assertThat("Section state is replaced.", state, not(sameInstance(before)))
+        assertThat("Config is snapshotted.", state.baseConfig, not(sameInstance<SectionConfig>(config)))
+        assertThat("Snapshot has the update.", state.baseConfig.headerStyle, equalTo(SectionConfig.HEADER_INLINE))
+    }
+
+    @Test
+    fun equivalentAdditions_shareSnapshot() {
+        val first = layout.graph.sectionAdded(sectionId, 0, LinearSectionConfig())
+        val second = layout.graph.sectionAdded(sectionId, 1, LinearSectionConfig())
+
+        assertThat("Snapshot is shared.", state.subsections[1].baseConfig,
+                   sameInstance(state.subsections[0].baseConfig))
+        assertThat("Sections are distinct.", first, not(equalTo(second)))
+    }
+}
@@ -0,0 +1,84 @@
+package com.tonicartos.superslim
+
+import com.tonicartos.superslim.internal.SectionIdTable
+import org.hamcrest.MatcherAssert.assertThat
+import org.hamcrest.Matchers.equalTo
+import org.hamcrest.Matchers.lessThan
+import org.junit.Before
+import org.junit.Test
+
+class SectionIdTableTests {
+    private lateinit var table: SectionIdTable
+
+    @Before
+    fun setup() {
+        table = SectionIdTable()
+    }
+
+    @Test
+    fun add_givesDenseIndexes() {
+        val ids = listOf(7, 1 shl 20 or 7, 3, 12345)
+        ids.forEachIndexed { i, id -> assertThat("Index of id $id.", table.add(id), equalTo(i)) }
+
+        assertThat("Adding again finds the same index.", table.add(3), equalTo(2))
+        assertThat("Size counts each id once.", table.size, equalTo(4))
+        ids.forEachIndexed { i, id -> assertThat("Id at $i.", table.idAt(i), equalTo(id)) }
+        assertThat("Missing id has no index.", table.indexOf(8), equalTo(-1))
+    }
+
+    @Test
+    fun removeAt_movesLastIdIntoPlace() {
+        (0 until 5).forEach { table.add(it * 10) }
+        table.removeAt(1)
+
+        assertThat("Size shrinks.", table.size, equalTo(4))
+        assertThat("Removed id is gone.", 10 in table, equalTo(false))
+        assertThat("Last id takes the removed index.", table.idAt(1), equalTo(40))
+        assertThat("Moved id is found at its new index.", table.indexOf(40), equalTo(1))
+        listOf(0, 20, 30).forEach { assertThat("Id $it is kept.", it in table, equalTo(true)) }
+    }
+
+    @Test
+    fun manyIds_surviveGrowthAndRemoval() {
+        // Ids from the same slots with new generations, as a busy section registry hands out.
+        val ids = (0 until 1000).map { (it % 50) or ((it / 50) shl 20) }
+        ids.forEach { table.add(it) }
+        ids.filterIndexed { i, _ -> i % 3 == 0 }.forEach { table.removeAt(table.indexOf(it)) }
+
+        ids.forEachIndexed { i, id ->
+            assertThat("Id $id is ${if (i % 3 == 0) "removed" else "kept"}.", id in table, equalTo(i % 3 != 0))
+        }
+        (0 until table.size).forEach {
+            assertThat("Index $it is consistent.", table.indexOf(table.idAt(it)), equalTo(it))
+        }
+    }
+
+    @Test
+    fun clear_emptiesTable() {
+        (0 until 20).forEach { table.add(it) }
+        table.clear()
+
+        assertThat("Nothing left.", table.size, equalTo(0))
+        assertThat("Ids are gone.", 5 in table, equalTo(false))
+        assertThat("Indexes start over.", table.add(5), equalTo(0))
+    }
+
+    /**
+     * Section changes are queued and applied every frame they are notified in, so once the table has grown it must not
+     * allocate.
+     */
+    @Test
+    fun queueAndClear_doNotAllocateOnceWarm() {
+        val frame = {
+            for (id in 0 until 64) table.add(id or (1 shl 20))
+            for (id in 0 until 64 step 2) table.removeAt(table.indexOf(id or (1 shl 20)))
+            table.clear()
+        }
+        repeat(1000) { frame() }
+
+        val frames = 10000
+        val allocated = allocatedBytes { repeat(frames) { frame() } }
+
+        assertThat("Bytes allocated over $frames frames.", allocated, lessThan(frames.toLong()))
+    }
+}
@@ -0,0 +1,80 @@
+package com.tonicartos.superslim
+
+import com.tonicartos.superslim.internal.SectionManager
+import com.tonicartos.superslim.internal.SectionState
+import com.tonicartos.superslim.layout.LinearSectionConfig
+import org.hamcrest.MatcherAssert.assertThat
+import org.hamcrest.Matchers.*
+import org.junit.Before
+import org.junit.Test
+
+class SectionManagerTests {
+    private lateinit var manager: SectionManager
+    private lateinit var sections: List<SectionState>
+
+    @Before
+    fun setup() {
+        manager = SectionManager()
+        sections = (0..3).map { LinearSectionConfig().makeSection() }
+    }
+
+    @Test
+    fun addAndLookup() {
+        val ids = sections.map { manager.add(it) }
+
+        assertThat("Ids are distinct.", ids.toSet().size, equalTo(4))
+        ids.forEachIndexed { i, id -> assertThat("Id $i finds its section.", manager[id], sameInstance(sections[i])) }
+    }
+
+    @Test
+    fun removedSlotIsReusedWithNewId() {
+        val first = manager.add(sections[0])
+        manager.remove(first)
+        val second = manager.add(sections[1])
+
+        assertThat("Reused slot gets a different id.", second, not(equalTo(first)))
+        assertThat("Stale id is not found.", manager.getOrNull(first), nullValue())
+        assertThat("New id finds new section.", manager[second], sameInstance(sections[1]))
+    }
+
+    @Test(expected = IllegalArgumentException::class)
+    fun staleIdLookup_throws() {
+        val id = manager.add(sections[0])
+        manager.remove(id)
+        manager.add(sections[1])
+
+        manager[id]
+    }
+
+    @Test
+    fun staleIdPeek_isNull() {
+        val id = manager.add(sections[0])
+        manager.remove(id)
+        manager.add(sections[1])
+
+        assertThat("Stale id has no state.", manager.peek(id), nullValue())
+        assertThat("Stale id is not contained.", id in manager, equalTo(false))
+    }
+
+    @Test
+    fun retainAll_removesOtherSections() {
+        val ids = sections.map { manager.add(it) }
+        manager.retainAll(setOf(ids[1], ids[3]))
+
+        assertThat("Retained section 1.", manager.getOrNull(ids[1]), sameInstance(sections[1]))
+        assertThat("Retained section 3.", manager.getOrNull(ids[3]), sameInstance(sections[3]))
+        assertThat("Removed section 0.", manager.getOrNull(ids[0]), nullValue())
+        assertThat("Removed section 2.", manager.getOrNull(ids[2]), nullValue())
+    }
+
+    @Test
+    fun sectionAddedByConfig_isMadeOnFirstLookup() {
+        val config = LinearSectionConfig()
+        val id = manager.add(config)
+
+        assertThat("No state before lookup.", manager.peek(id), nullValue())
+        val section = manager[id]
+        assertThat("State is made from the config.", section.baseConfig, sameInstance<SectionConfig>(config))
+        assertThat("State is kept.", manager.peek(id), sameInstance(section))
+    }
+}
@@ -0,0 +1,97 @@
+package com.tonicartos.superslim
+
+import android.support.v7.widget.RecyclerView
+import com.nhaarman.mockito_kotlin.any
+import com.nhaarman.mockito_kotlin.mock
+import com.nhaarman.mockito_kotlin.whenever
+import com.tonicartos.superslim.internal.ItemManager
+import com.tonicartos.superslim.internal.SectionState
+import org.hamcrest.MatcherAssert.assertThat
+import org.hamcrest.Matchers.equalTo
+import org.hamcrest.Matchers.sameInstance
+import org.junit.Before
+import org.junit.Test
+
+class SectionMoveTests {
+    private lateinit var adapter: FakeAdapter
+    private lateinit var layout: FakeLayout
+    private lateinit var items: ItemManager
+    private lateinit var recycler: RecyclerView.Recycler
+
+    @Before
+    fun setup() {
+        adapter = FakeAdapter(10, 10)
+        layout = FakeLayout(adapter)
+        layout.layout()
+        items = ItemManager()
+        recycler = mock()
+        whenever(recycler.convertPreLayoutPositionToPostLayout(any())).thenAnswer { it.arguments[0] }
+    }
+
+    /**
+     * Move section 1 into section 0, after its fifth item, notified the way the adapter does it.
+     */
+    private fun moveSection1IntoSection0() {
+        val ids = adapter.getSectionIds()
+        items.moveSection(ids[1]!!, adapter.rootId, ids[0]!!, 5, 10, 10)
+        items.removeItems(10, 10)
+        items.addItems(5, 10)
+    }
+
+    private fun assertMoved(pass: String, moved: SectionState) {
+        val root = layout.graph.root
+        assertThat("$pass: Root keeps all items.", root.totalItems, equalTo(100))
+        assertThat("$pass: Root has one less subsection.", root.subsections.size, equalTo(9))
+        assertThat("$pass: Section 0 holds the moved section.", root.subsections[0].subsections[0], sameInstance(moved))
+        assertThat("$pass: Section 0 counts the moved items.", root.subsections[0].totalItems, equalTo(20))
+        assertThat("$pass: Moved section is after five items of section 0.", moved.positionInAdapter, equalTo(5))
+        assertThat("$pass: Section 2 is where it was.", root.subsections[1].positionInAdapter, equalTo(20))
+    }
+
+    @Test
+    fun moveAcrossParents_isInPlaceForBothPasses() {
+        val moved = layout.graph.root.subsections[1]
+        moveSection1IntoSection0()
+
+        layout.host.isPreLayout = true
+        items.applyChanges(adapter, layout.graph, recycler)
+        layout.layout()
+        assertMoved("Pre-layout", moved)
+
+        layout.host.isPreLayout = false
+        items.applyChanges(adapter, layout.graph, recycler)
+        layout.layout()
+        assertMoved("Post-layout", moved)
+    }
+
+    @Test
+    fun moveInOrderWithItemChanges() {
+        val moved = layout.graph.root.subsections[1]
+        // Items removed from section 3 before the move are still counted from where they were.
+        items.removeItems(30, 2)
+        moveSection1IntoSection0()
+
+        items.applyChanges(adapter, layout.graph, recycler)
+        layout.layout()
+
+        assertThat("Root counts the removal.", layout.graph.root.totalItems, equalTo(98))
+        assertThat("Section 3 lost two items.", layout.graph.root.subsections[2].totalItems, equalTo(8))
+        assertThat("Moved section is in section 0.", layout.graph.root.subsections[0].subsections[0],
+                   sameInstance(moved))
+    }
+
+    @Test
+    fun addedItems_reachSectionsRunByRun() {
+        // Two items at the end of section 0 and two at the start of section 1, described by the adapter in runs.
+        items.addItems(8, 4)
+
+        items.applyChanges(adapter, layout.graph, recycler)
+        layout.layout()
+
+        assertThat("Root counts the additions.", layout.graph.root.totalItems, equalTo(104))
+        assertThat("Section 0 gained two items.", layout.graph.root.subsections[0].totalItems, equalTo(12))
+        assertThat("Section 1 gained two items.", layout.graph.root.subsections[1].totalItems, equalTo(12))
+        assertThat("Section 1 starts after the items of section 0.",
+                   layout.graph.root.subsections[1].positionInAdapter, equalTo(12))
+    }
+}
@@ -0,0 +1,71 @@
+package com.tonicartos.superslim
+
+import android.support.v7.widget.RecyclerView.NO_POSITION
+import com.tonicartos.superslim.layout.LinearSectionConfig
+import org.hamcrest.MatcherAssert.assertThat
+import org.hamcrest.Matchers.equalTo
+import org.junit.Before
+import org.junit.Test
+
+class SmoothScrollTests {
+    private lateinit var estimator: AverageExtentEstimator
+    private lateinit var layout: FakeLayout
+
+    @Before
+    fun setup() {
+        estimator = AverageExtentEstimator()
+        layout = FakeLayout(FakeAdapter(1000, 10, hasHeaders = true) {
+            LinearSectionConfig(headerStyle = SectionConfig.HEADER_INLINE)
+        })
+        layout.helper.extentEstimator = estimator
+    }
+
+    private val attachedSpan get() = layout.graph.root.lastAttachedPosition - layout.graph.root.firstAttachedPosition + 1
+
+    @Test
+    fun sectionStart_isHeaderOfSectionHoldingPosition() {
+        layout.layout()
+
+        assertThat("Item resolves to its header.", layout.graph.sectionStartOf(5505), equalTo(5500))
+        assertThat("Header resolves to itself.", layout.graph.sectionStartOf(5500), equalTo(5500))
+        assertThat("Last item resolves to its header.", layout.graph.sectionStartOf(10999), equalTo(10989))
+    }
+
+    @Test
+    fun distance_isEstimatedFromLayoutArea() {
+        layout.layout()
+        layout.scrollBy(250)
+
+        assertThat("Distance ahead.", layout.graph.estimateDistanceTo(5500, estimator), equalTo(549750))
+        assertThat("Distance behind.", layout.graph.estimateDistanceTo(0, estimator), equalTo(-250))
+    }
+
+    @Test
+    fun nearTarget_doesNotJump() {
+        layout.layout()
+
+        assertThat("No jump.", layout.graph.jumpPositionFor(25, estimator, 3000), equalTo(NO_POSITION))
+    }
+
+    @Test
+    fun farTarget_jumpsShortOfTarget() {
+        layout.layout()
+
+        assertThat("Jumps a layout area short.", layout.graph.jumpPositionFor(5500, estimator, 3000),
+                   equalTo(5500 - attachedSpan))
+    }
+
+    @Test
+    fun farTargetBehind_jumpsShortOfTarget() {
+        layout.graph.requestPosition(5500, 0)
+        layout.layout()
+
+        assertThat("Jumps a layout area short.", layout.graph.jumpPositionFor(11, estimator, 3000),
+                   equalTo(11 + attachedSpan))
+    }
+
+    @Test
+    fun nothingLaidOut_doesNotJump() {
+        assertThat("No jump.", layout.graph.jumpPositionFor(5500, estimator, 3000), equalTo(NO_POSITION))
+    }
+}